@@ -7,10 +7,14 @@ import cloud.contoterzi.helpdesk.core.model.*;
 import cloud.contoterzi.helpdesk.core.spi.LlmClient;
 import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
 import cloud.contoterzi.helpdesk.core.util.SpiLoader;
+import cloud.contoterzi.helpdesk.core.util.TextNormalizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -31,17 +35,35 @@ public class HelpdeskEngine {
             "Sorry, I don't know the answer to that question.";
     public static final String LLM_ERROR = "LLM error";
 
+    private static final int DEFAULT_ANSWER_CACHE_SIZE = 1_024;
+    private static final int DEFAULT_ANSWER_CACHE_TTL_SECONDS = 3_600;
+
     /**
      * Sentinel sentence to detect the need of escalation to a human support in the LLM response.
      * This will be configured from the config file.
      */
     private String contactSupportPhrase = "contact support"; // Default fallback
 
-    private List<IKnowledge> kb;
+    private volatile List<IKnowledge> kb;
+    /**
+     * Knowledge base entries by normalized question, to answer verbatim questions without similarity scoring.
+     */
+    private volatile Map<String, IKnowledge> exactMatches = Map.of();
     private LlmClient llm;
     private SimilarityService similarityService;
     private double threshold;
     private YamlConfig config; // Store config to access prompts
+    /**
+     * The prompt template compiled for the current configuration and knowledge base, rebuilt when either changes.
+     */
+    private volatile PromptTemplate promptTemplate;
+    /**
+     * Number of knowledge base entries most similar to the question given as examples to the LLM.
+     */
+    private int fewShot = PromptTemplate.EXAMPLE_COUNT;
+    private PromptAssembler promptAssembler = new PromptAssembler(0);
+    private LlmAnswerCache answerCache = new LlmAnswerCache(0, 0L, 0.0);
+    private final LlmSingleFlight llmCalls = new LlmSingleFlight();
 
     public HelpdeskEngine() {}
 
@@ -64,6 +86,7 @@ public class HelpdeskEngine {
         this.kb = state.getKnowledgeBase();
         assert kb != null;
         LOGGER.info("Knowledge base loaded with " + kb.size() + " entries");
+        this.exactMatches = buildExactMatchIndex(kb);
         String llmType = cfg.getString("llm.type");
         assert llmType != null;
         LOGGER.info("Loading LLM client type: " + llmType);
@@ -82,9 +105,14 @@ public class HelpdeskEngine {
         else
             LOGGER.info("Similarity Service loaded via SPI successfully");
         this.similarityService.init(cfg);
+        this.similarityService.index(kb);
         this.threshold = cfg.getDouble("similarity.threshold", 0.8);
         // Initialize contactSupportPhrase from config
         this.contactSupportPhrase = cfg.getString("llm.prompts.contactSupportPhrase", "contact support");
+        this.fewShot = cfg.getInt("similarity.fewShot", PromptTemplate.EXAMPLE_COUNT);
+        this.promptTemplate = PromptTemplate.compile(cfg, kb);
+        this.promptAssembler = new PromptAssembler(cfg.getInt("llm.maxPromptTokens", 0));
+        this.answerCache = newAnswerCache(cfg);
     }
 
     /**
@@ -101,7 +129,7 @@ public class HelpdeskEngine {
         if (this.llm == null)
             throw new IllegalStateException("Helpdesk Engine not initialized. Did you call init()?");
 
-        final KnowledgeBestMatch bestMatch = this.similarityService.findBestMatch(request.getQuestion(), kb, threshold);
+        final KnowledgeBestMatch bestMatch = findBestMatch(request.getQuestion());
         final IKnowledge bestItem = bestMatch.getBestKBItem();
         final boolean hasBest = bestItem != null;
         final boolean shouldEscalate = !hasBest || bestItem.isEscalation();
@@ -120,13 +148,116 @@ public class HelpdeskEngine {
         return builder.build();
     }
 
+    /**
+     * Applies changes of the knowledge base while the engine is serving requests: the similarity service
+     * updates its index incrementally when it can, and the requests already running keep the previous
+     * knowledge base. The entries are matched by id: the delta is rejected, and the knowledge base left
+     * unchanged, if an entry has no id or shares it with another one.
+     *
+     * @param delta The entries added, updated or removed.
+     * @throws IllegalArgumentException if the ids of the knowledge base or of the delta are missing or repeated.
+     */
+    public synchronized void applyKnowledgeDelta(final KnowledgeDelta delta) {
+        if (this.similarityService == null)
+            throw new IllegalStateException("Helpdesk Engine not initialized. Did you call init()?");
+
+        delta.checkIds(kb);
+        final List<IKnowledge> updatedKb = delta.applyTo(kb);
+        // The answers have been generated with the examples of the previous knowledge base
+        answerCache.clear();
+        final long start = System.nanoTime();
+        final boolean incremental = similarityService.applyDelta(updatedKb, delta);
+        this.exactMatches = buildExactMatchIndex(updatedKb);
+        this.kb = updatedKb;
+        LOGGER.info("Knowledge base delta applied: {} upserts, {} removals, {} entries, {} in {} ms",
+                delta.getUpserts().size(), delta.getRemovedIds().size(), updatedKb.size(),
+                incremental ? "incremental update" : "re-indexed", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Number of questions answered from the LLM answer cache.
+     * @return the cache hits since the engine was initialized
+     */
+    public long getAnswerCacheHits() {
+        return answerCache.hits();
+    }
+
+    /**
+     * Number of questions which had to be sent to the LLM while the answer cache was enabled.
+     * @return the cache misses since the engine was initialized
+     */
+    public long getAnswerCacheMisses() {
+        return answerCache.misses();
+    }
+
+    /**
+     * Number of questions answered by an identical LLM call already in flight instead of a call of their own.
+     * @return the coalesced calls since the engine was created
+     */
+    public long getCoalescedLlmCalls() {
+        return llmCalls.coalesced();
+    }
+
+    /**
+     * Creates the cache of the LLM answers: {@code llm.cache.size} answers (default 1024, 0 disables it) kept
+     * {@code llm.cache.ttlSeconds} (default 3600). With {@code llm.cache.similarity} above 0, a question also
+     * reuses the answer of a cached question whose words are at least that similar (cosine of the word counts).
+     */
+    private static LlmAnswerCache newAnswerCache(YamlConfig cfg) {
+        final int size = cfg.getInt("llm.cache.size", DEFAULT_ANSWER_CACHE_SIZE);
+        final long ttlMillis = cfg.getInt("llm.cache.ttlSeconds", DEFAULT_ANSWER_CACHE_TTL_SECONDS) * 1_000L;
+        final double nearDuplicateThreshold = cfg.getDouble("llm.cache.similarity", 0.0);
+        return new LlmAnswerCache(size, ttlMillis, nearDuplicateThreshold);
+    }
+
+    /**
+     * Finds the best knowledge base item for the question: a question equal to a knowledge base one
+     * once normalized is matched with confidence 1.0 without scoring, any other goes through the similarity service.
+     */
+    private KnowledgeBestMatch findBestMatch(String question) {
+        final IKnowledge exactMatch = exactMatches.get(TextNormalizer.normalize(question));
+        if (exactMatch != null)
+            return new KnowledgeBestMatch(false, 1.0, exactMatch);
+        return this.similarityService.findBestMatch(question, kb, threshold);
+    }
+
+    /**
+     * Indexes the knowledge base entries by normalized question; when several entries share the same
+     * normalized question, the first one wins, as in a similarity scan.
+     */
+    private static Map<String, IKnowledge> buildExactMatchIndex(List<IKnowledge> kb) {
+        final Map<String, IKnowledge> index = new HashMap<>(kb.size() * 2);
+        for (IKnowledge entry : kb) {
+            final String key = TextNormalizer.normalize(entry.getQuestion());
+            if (!key.isEmpty())
+                index.putIfAbsent(key, entry);
+        }
+        return index;
+    }
+
     private void handleLlmPath(HelpdeskResponse.Builder builder, HelpdeskRequest request) {
         try {
+            final PromptTemplate template = currentPromptTemplate();
+            final LlmResponse cachedResponse = answerCache.get(request.getQuestion(), template);
+            if (cachedResponse != null) {
+                builder.answer(cachedResponse.getAnswer())
+                        .escalation(containsContactSupport(cachedResponse.getAnswer()))
+                        .source(LLM)
+                        .responseTimeMs(0L);
+                return;
+            }
+
             // Construct the prompt using template and examples from knowledge base
-            String prompt = buildPromptWithTemplate(request.getQuestion());
+            final String prompt = buildPromptWithTemplate(template, request.getQuestion());
             
             // HERE IS THE CALL TO THE 'DRIVER' FOR THE Long Language Model
-            final LlmResponse llmResponse = llm.ask(new LlmRequest(prompt));
+            // Identical prompts in flight share one call; the answer is cached before the next call may start
+            final LlmResponse llmResponse = llmCalls.execute(prompt, () -> {
+                final LlmResponse response = llm.ask(new LlmRequest(prompt));
+                if (response != null && response.getAnswer() != null)
+                    answerCache.put(request.getQuestion(), template, response);
+                return response;
+            });
 
             final String answer = (llmResponse != null) ? llmResponse.getAnswer() : null;
             final boolean escalation = containsContactSupport(answer);
@@ -163,35 +294,56 @@ public class HelpdeskEngine {
     /**
      * Builds the prompt using the configured template with examples from the knowledge base.
      * Template format: preamble + "\n\nExamples:\n" + examples + "\n\nUser question: " + question + "\nAnswer:"
+     * The template is compiled once per configuration and knowledge base, see {@link PromptTemplate}.
+     * @param userQuestion the user question
+     * @return the prompt of the question with the current template
      */
-    private String buildPromptWithTemplate(String userQuestion) {
-        String preamble = config.getString("llm.prompts.preamble");
-        String template = config.getString("llm.prompts.template");
+    String buildPromptWithTemplate(String userQuestion) {
+        return buildPromptWithTemplate(currentPromptTemplate(), userQuestion);
+    }
 
-        if (template == null || template.isEmpty()) {
-            // Fallback to simple question if no template
-            return userQuestion;
-        }
-        
-        // Build examples from knowledge base (limit to first 10 for brevity)
-        StringBuilder examples = new StringBuilder();
-        int count = 0;
-        for (IKnowledge entry : kb) {
-            if (count >= 10) break;
-            examples.append("- ").append(entry.getQuestion())
-                   .append(" -> ").append(entry.getAnswer()).append("\n");
-            count++;
+    private String buildPromptWithTemplate(PromptTemplate template, String userQuestion) {
+        return promptAssembler.assemble(template, userQuestion, selectExamples(userQuestion, kb));
+    }
+
+    /**
+     * Returns the prompt template compiled for the current configuration and knowledge base, compiling it
+     * if either has changed.
+     */
+    private PromptTemplate currentPromptTemplate() {
+        final YamlConfig currentConfig = config;
+        final List<IKnowledge> currentKb = kb;
+        PromptTemplate template = promptTemplate;
+        if (template == null || !template.isCompiledFrom(currentConfig, currentKb)) {
+            template = PromptTemplate.compile(currentConfig, currentKb);
+            promptTemplate = template;
         }
-        
-        // Apply template: template should contain %s placeholders for preamble, examples, question
+        return template;
+    }
+
+    /**
+     * Selects the few-shot examples of the prompt: the {@code similarity.fewShot} entries most similar to
+     * the question. This is a second search after {@link #findBestMatch(String)}, over the top
+     * {@code similarity.fewShot} entries, which the {@code cosine} provider runs with the question vector
+     * cached by the best match. The entries sharing nothing with the question are left out.
+     * @return the examples from the most similar, null to use the first entries of the knowledge base
+     */
+    private List<IKnowledge> selectExamples(String userQuestion, List<IKnowledge> currentKb) {
+        final SimilarityService service = similarityService;
+        if (service == null || fewShot <= 0 || currentKb == null || currentKb.isEmpty()
+                || userQuestion == null || userQuestion.trim().isEmpty())
+            return null;
+
+        final List<IKnowledge> relevant = new ArrayList<>(fewShot);
         try {
-            return String.format(template, 
-                preamble != null ? preamble : "",
-                examples.toString().trim(),
-                userQuestion);
-        } catch (Exception ex) {
-            LOGGER.warn("Error formatting template, falling back to simple question", ex);
-            return userQuestion;
+            for (ScoredKnowledge scored : service.scoredTopK(userQuestion, currentKb, fewShot)) {
+                if (!(scored.getScore() <= 0.0))
+                    relevant.add(scored.getEntry());
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Cannot select the examples, using the first entries of the knowledge base", ex);
+            return null;
         }
+        return relevant.isEmpty() ? null : relevant;
     }
 }
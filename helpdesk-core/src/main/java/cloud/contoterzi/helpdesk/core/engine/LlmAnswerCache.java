@@ -0,0 +1,211 @@
+package cloud.contoterzi.helpdesk.core.engine;
+
+import cloud.contoterzi.helpdesk.core.model.LlmResponse;
+import cloud.contoterzi.helpdesk.core.similarity.WordTokenizer;
+import cloud.contoterzi.helpdesk.core.util.TextNormalizer;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded LRU cache of the answers generated by the LLM, keyed by normalized question ({@link TextNormalizer}).
+ * An answer expires after its time to live, and is ignored once the prompt it has been generated with
+ * changes: every answer records the {@link PromptTemplate} compiled for the configuration and knowledge base
+ * of the request, which is replaced when either changes.
+ * With a near-duplicate threshold, a question missing from the cache is also compared with the cached questions
+ * by the cosine similarity of their word counts ({@link WordTokenizer}); the words of a question are counted once,
+ * when it is cached, so that nothing is indexed nor saved and the knowledge base index is left alone.
+ * The map is guarded by its own lock, held only for the lookups and insertions, never while scoring.
+ */
+final class LlmAnswerCache {
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final double nearDuplicateThreshold;
+    private final LongSupplier clock;
+    private final Map<String, CachedAnswer> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Default constructor.
+     * @param capacity the maximum number of answers, 0 or less to disable the cache
+     * @param ttlMillis the time to live of an answer in milliseconds
+     * @param nearDuplicateThreshold the similarity from which a cached question is a near-duplicate,
+     *                               0 or less to match the normalized question only
+     */
+    LlmAnswerCache(int capacity, long ttlMillis, double nearDuplicateThreshold) {
+        this(capacity, ttlMillis, nearDuplicateThreshold, System::nanoTime);
+    }
+
+    LlmAnswerCache(int capacity, long ttlMillis, double nearDuplicateThreshold, LongSupplier clock) {
+        this.capacity = capacity;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.nearDuplicateThreshold = nearDuplicateThreshold;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAnswer> eldest) {
+                return size() > LlmAnswerCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached answer of a question, counting a hit or a miss.
+     * @param question the user question
+     * @param template the template the prompt of the question would be built with
+     * @return the cached answer, null if absent, expired or generated with another prompt
+     */
+    LlmResponse get(String question, PromptTemplate template) {
+        if (capacity <= 0)
+            return null;
+
+        final String key = TextNormalizer.normalize(question);
+        final long now = clock.getAsLong();
+        CachedAnswer cached = lookup(key, template, now);
+        if (cached == null && nearDuplicateThreshold > 0.0)
+            cached = nearDuplicate(key, template, now);
+        if (cached != null) {
+            hits.increment();
+            return cached.response;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the answer of a question.
+     * @param question the user question
+     * @param template the template the prompt of the question has been built with
+     * @param response the answer of the LLM
+     */
+    void put(String question, PromptTemplate template, LlmResponse response) {
+        if (capacity <= 0)
+            return;
+
+        final String key = TextNormalizer.normalize(question);
+        final CachedAnswer cached = new CachedAnswer(key, nearDuplicateThreshold > 0.0 ? WordCounts.of(key) : null,
+                template, response, clock.getAsLong() + ttlNanos);
+        synchronized (entries) {
+            entries.put(key, cached);
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private CachedAnswer lookup(String key, PromptTemplate template, long now) {
+        synchronized (entries) {
+            final CachedAnswer cached = entries.get(key);
+            if (cached == null)
+                return null;
+            if (cached.template != template || now - cached.expiresAt > 0) {
+                entries.remove(key);
+                return null;
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * Finds the cached question most similar to the question, if it reaches the near-duplicate threshold.
+     */
+    private CachedAnswer nearDuplicate(String key, PromptTemplate template, long now) {
+        final CachedAnswer[] candidates;
+        synchronized (entries) {
+            if (entries.isEmpty())
+                return null;
+            candidates = entries.values().toArray(new CachedAnswer[0]);
+        }
+
+        final WordCounts words = WordCounts.of(key);
+        CachedAnswer best = null;
+        double bestSimilarity = 0.0;
+        for (CachedAnswer candidate : candidates) {
+            if (candidate.template != template)
+                continue;
+            final double similarity = words.cosine(candidate.words);
+            if (similarity >= nearDuplicateThreshold && (best == null || similarity > bestSimilarity)) {
+                best = candidate;
+                bestSimilarity = similarity;
+            }
+        }
+        if (best == null)
+            return null;
+        final CachedAnswer cached = lookup(best.key, template, now);
+        // The entry may have been replaced since the candidates were copied
+        return cached == best ? cached : null;
+    }
+
+    /**
+     * Immutable cached answer.
+     */
+    private static final class CachedAnswer {
+        private final String key;
+        private final WordCounts words;
+        private final PromptTemplate template;
+        private final LlmResponse response;
+        private final long expiresAt;
+
+        CachedAnswer(String key, WordCounts words, PromptTemplate template, LlmResponse response, long expiresAt) {
+            this.key = key;
+            this.words = words;
+            this.template = template;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Occurrences of the words of a question, with the norm of the vector they form.
+     */
+    private static final class WordCounts {
+        private final Map<String, Integer> counts;
+        private final double norm;
+
+        private WordCounts(Map<String, Integer> counts) {
+            this.counts = counts;
+            long sumOfSquares = 0;
+            for (int count : counts.values()) {
+                sumOfSquares += (long) count * count;
+            }
+            this.norm = Math.sqrt(sumOfSquares);
+        }
+
+        static WordCounts of(String text) {
+            final Map<String, Integer> counts = new HashMap<>();
+            WordTokenizer.INSTANCE.tokenize(text, (buffer, length) ->
+                    counts.merge(new String(buffer, 0, length), 1, Integer::sum));
+            return new WordCounts(counts);
+        }
+
+        double cosine(WordCounts other) {
+            if (norm == 0.0 || other.norm == 0.0)
+                return 0.0;
+            final Map<String, Integer> small = counts.size() <= other.counts.size() ? counts : other.counts;
+            final Map<String, Integer> large = small == counts ? other.counts : counts;
+            long dotProduct = 0;
+            for (Map.Entry<String, Integer> word : small.entrySet()) {
+                final Integer count = large.get(word.getKey());
+                if (count != null)
+                    dotProduct += (long) word.getValue() * count;
+            }
+            return dotProduct / (norm * other.norm);
+        }
+    }
+}
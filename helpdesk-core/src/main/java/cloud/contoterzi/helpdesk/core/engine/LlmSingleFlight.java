@@ -0,0 +1,88 @@
+package cloud.contoterzi.helpdesk.core.engine;
+
+import cloud.contoterzi.helpdesk.core.llm.LlmException;
+import cloud.contoterzi.helpdesk.core.llm.ProviderException;
+import cloud.contoterzi.helpdesk.core.model.LlmResponse;
+import cloud.contoterzi.helpdesk.core.util.TextNormalizer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces the identical LLM calls in flight, keyed by normalized prompt ({@link TextNormalizer}): the first
+ * request of a prompt makes the call, the requests arriving with the same prompt before it completes wait for
+ * its outcome instead of calling the LLM again. All of them get the same {@link LlmResponse}, or the same
+ * {@link LlmException} instance, so that the retry and escalation decisions are identical.
+ * The prompt is forgotten as soon as the call completes: a later request calls the LLM again.
+ */
+final class LlmSingleFlight {
+
+    /**
+     * A call to the LLM.
+     */
+    @FunctionalInterface
+    interface Call {
+        LlmResponse ask() throws LlmException;
+    }
+
+    private final ConcurrentMap<String, CompletableFuture<LlmResponse>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Makes the call, or waits for the identical one in flight.
+     * @param prompt the prompt sent by the call
+     * @param call the call to the LLM
+     * @return the response of the call
+     * @throws LlmException the failure of the call
+     */
+    LlmResponse execute(String prompt, Call call) throws LlmException {
+        final String key = TextNormalizer.normalize(prompt);
+        final CompletableFuture<LlmResponse> flight = new CompletableFuture<>();
+        final CompletableFuture<LlmResponse> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            coalesced.increment();
+            return await(leader);
+        }
+
+        try {
+            final LlmResponse response = call.ask();
+            flight.complete(response);
+            return response;
+        } catch (LlmException | RuntimeException | Error ex) {
+            flight.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Number of calls answered by an identical call in flight instead of the LLM.
+     */
+    long coalesced() {
+        return coalesced.sum();
+    }
+
+    private static LlmResponse await(CompletableFuture<LlmResponse> leader) throws LlmException {
+        try {
+            return leader.get();
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof LlmException)
+                throw (LlmException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new ProviderException("LLM call failed", cause, ProviderException.UNKNOWN_STATUS,
+                    ProviderException.UNKNOWN_RETRY_AFTER_MS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ProviderException("Interrupted while waiting for an identical LLM call", ex,
+                    ProviderException.UNKNOWN_STATUS, ProviderException.UNKNOWN_RETRY_AFTER_MS);
+        }
+    }
+}
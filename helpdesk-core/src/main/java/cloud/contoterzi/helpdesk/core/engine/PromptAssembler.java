@@ -0,0 +1,95 @@
+package cloud.contoterzi.helpdesk.core.engine;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Assembles the LLM prompts within a budget of input tokens ({@code llm.maxPromptTokens}, 0 for no budget).
+ * The budget only covers the prompt: the length of the answer is left to the provider.
+ * The preamble and the question always go in the prompt; the examples are then added from the most relevant
+ * one, until the next one would exceed the budget. The tokens are estimated locally with
+ * {@link #estimateTokens(CharSequence)}, without the tokenizer of the model.
+ */
+final class PromptAssembler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PromptAssembler.class.getName());
+
+    /**
+     * Average number of characters of a word piece in the tokenizers of the models.
+     */
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final int maxPromptTokens;
+
+    /**
+     * Default constructor.
+     * @param maxPromptTokens the budget of a prompt, 0 or less for no budget
+     */
+    PromptAssembler(int maxPromptTokens) {
+        this.maxPromptTokens = maxPromptTokens;
+    }
+
+    /**
+     * Builds the prompt of a question.
+     * @param template the compiled template
+     * @param question the user question
+     * @param examples the candidate examples from the most relevant, null for the default examples of the template
+     * @return the prompt to send to the LLM
+     */
+    String assemble(PromptTemplate template, String question, List<IKnowledge> examples) {
+        if (maxPromptTokens <= 0 || !template.hasExamples()) {
+            return examples != null
+                    ? template.render(question, PromptTemplate.examples(examples, examples.size()))
+                    : template.render(question);
+        }
+
+        final List<IKnowledge> candidates = examples != null ? examples : template.defaultEntries();
+        int tokens = estimateTokens(template.render(question, ""));
+        final StringBuilder selected = new StringBuilder();
+        int count = 0;
+        for (IKnowledge candidate : candidates) {
+            final String example = PromptTemplate.example(candidate);
+            final int exampleTokens = estimateTokens(example) + (count > 0 ? 1 : 0);
+            if (tokens + exampleTokens > maxPromptTokens)
+                break;
+            if (count > 0)
+                selected.append('\n');
+            selected.append(example);
+            tokens += exampleTokens;
+            count++;
+        }
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug("Prompt of about {} tokens out of {}: {} of {} examples",
+                    tokens, maxPromptTokens, count, candidates.size());
+        return template.render(question, selected.toString());
+    }
+
+    /**
+     * Estimates the number of tokens of a text: every run of letters or digits counts one token per
+     * {@value #CHARS_PER_TOKEN} characters started, every other visible character one token, the white space none.
+     * It approximates the byte-pair encodings of the models, closely enough to bound a prompt.
+     * @param text the text
+     * @return the estimated number of tokens
+     */
+    static int estimateTokens(CharSequence text) {
+        if (text == null)
+            return 0;
+
+        int tokens = 0;
+        int run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                run++;
+                continue;
+            }
+            tokens += (run + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+            run = 0;
+            if (!Character.isWhitespace(c))
+                tokens++;
+        }
+        return tokens + (run + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
@@ -0,0 +1,220 @@
+package cloud.contoterzi.helpdesk.core.engine;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The LLM prompt template compiled for a configuration and a knowledge base.
+ * The template ({@code llm.prompts.template}) is formatted once with the preamble and markers standing for the
+ * examples and the question, then split around the markers: a request only concatenates the static parts
+ * with its examples and its question, without looking up the configuration or parsing the format.
+ * A template which transforms the examples or the question (e.g. {@code %.100s} or {@code %S}) is formatted
+ * on every request.
+ */
+final class PromptTemplate {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PromptTemplate.class.getName());
+
+    /**
+     * Default number of knowledge base entries given as examples.
+     */
+    static final int EXAMPLE_COUNT = 10;
+
+    private static final String EXAMPLES_MARKER = "\u0000examples\u0000";
+    private static final String QUESTION_MARKER = "\u0000question\u0000";
+    private static final String SAMPLE_EXAMPLES = "- sample question? -> sample answer";
+    private static final String SAMPLE_QUESTION = "Sample question?";
+
+    private final YamlConfig config;
+    private final List<IKnowledge> kb;
+    /**
+     * The examples used when none are given: the first {@link #EXAMPLE_COUNT} entries of the knowledge base.
+     */
+    private final String defaultExamples;
+    private final String preamble;
+    /**
+     * The format applied on every request, null when the template is compiled or missing.
+     */
+    private final String format;
+    /**
+     * The static parts of the prompt, an example or question slot going between two consecutive parts;
+     * null without template.
+     */
+    private final String[] parts;
+    /**
+     * For every slot, true for the question, false for the examples.
+     */
+    private final boolean[] questionSlots;
+    private final int staticLength;
+
+    private PromptTemplate(YamlConfig config, List<IKnowledge> kb, String defaultExamples, String preamble,
+                           String format, String[] parts, boolean[] questionSlots) {
+        this.config = config;
+        this.kb = kb;
+        this.defaultExamples = defaultExamples;
+        this.preamble = preamble;
+        this.format = format;
+        this.parts = parts;
+        this.questionSlots = questionSlots;
+        int length = 0;
+        for (int i = 0; parts != null && i < parts.length; i++) {
+            length += parts[i].length();
+        }
+        this.staticLength = length;
+    }
+
+    /**
+     * Compiles the prompt template of a configuration with the default examples of a knowledge base.
+     * A missing template makes the question the whole prompt, as does a template which cannot be formatted.
+     * @param config the configuration holding {@code llm.prompts.preamble} and {@code llm.prompts.template}
+     * @param kb the knowledge base providing the default examples, may be null
+     * @return the compiled template
+     */
+    static PromptTemplate compile(YamlConfig config, List<IKnowledge> kb) {
+        final String configuredPreamble = config.getString("llm.prompts.preamble");
+        final String preamble = configuredPreamble != null ? configuredPreamble : "";
+        final String template = config.getString("llm.prompts.template");
+        final String defaultExamples = examples(kb, EXAMPLE_COUNT);
+        if (template == null || template.isEmpty()) {
+            return new PromptTemplate(config, kb, defaultExamples, preamble, null, null, null);
+        }
+
+        final String rendered;
+        final String expected;
+        try {
+            rendered = String.format(template, preamble, EXAMPLES_MARKER, QUESTION_MARKER);
+            expected = String.format(template, preamble, SAMPLE_EXAMPLES, SAMPLE_QUESTION);
+        } catch (Exception ex) {
+            LOGGER.warn("Error formatting template, falling back to simple question", ex);
+            return new PromptTemplate(config, kb, defaultExamples, preamble, null, null, null);
+        }
+
+        final List<String> parts = new ArrayList<>();
+        final List<Boolean> slots = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            final int examples = rendered.indexOf(EXAMPLES_MARKER, start);
+            final int question = rendered.indexOf(QUESTION_MARKER, start);
+            if (examples < 0 && question < 0)
+                break;
+            final boolean isQuestion = examples < 0 || (question >= 0 && question < examples);
+            final int marker = isQuestion ? question : examples;
+            parts.add(rendered.substring(start, marker));
+            slots.add(isQuestion);
+            start = marker + (isQuestion ? QUESTION_MARKER : EXAMPLES_MARKER).length();
+        }
+        parts.add(rendered.substring(start));
+
+        final boolean[] questionSlots = new boolean[slots.size()];
+        for (int i = 0; i < questionSlots.length; i++) {
+            questionSlots[i] = slots.get(i);
+        }
+        final PromptTemplate compiled = new PromptTemplate(config, kb, defaultExamples, preamble, null,
+                parts.toArray(new String[0]), questionSlots);
+        if (!compiled.render(SAMPLE_QUESTION, SAMPLE_EXAMPLES).equals(expected)) {
+            // The examples or the question are not copied as is: the template has to be formatted per request
+            return new PromptTemplate(config, kb, defaultExamples, preamble, template, null, null);
+        }
+        return compiled;
+    }
+
+    /**
+     * Builds the prompt of a question with the default examples.
+     * @param question the user question
+     * @return the prompt to send to the LLM
+     */
+    String render(String question) {
+        return render(question, defaultExamples);
+    }
+
+    /**
+     * Builds the prompt of a question.
+     * @param question the user question
+     * @param examples the examples, see {@link #examples(List, int)}
+     * @return the prompt to send to the LLM
+     */
+    String render(String question, String examples) {
+        if (format != null) {
+            try {
+                return String.format(format, preamble, examples, question);
+            } catch (Exception ex) {
+                LOGGER.warn("Error formatting template, falling back to simple question", ex);
+                return question;
+            }
+        }
+        if (parts == null)
+            return question;
+
+        int length = staticLength;
+        for (boolean isQuestion : questionSlots) {
+            final String value = isQuestion ? question : examples;
+            length += value != null ? value.length() : 4;
+        }
+        final StringBuilder prompt = new StringBuilder(length);
+        prompt.append(parts[0]);
+        for (int i = 1; i < parts.length; i++) {
+            prompt.append(questionSlots[i - 1] ? question : examples).append(parts[i]);
+        }
+        return prompt.toString();
+    }
+
+    /**
+     * Tells whether this template has been compiled from the given configuration and knowledge base instances.
+     * @param config the current configuration
+     * @param kb the current knowledge base
+     * @return true if the template is up to date
+     */
+    boolean isCompiledFrom(YamlConfig config, List<IKnowledge> kb) {
+        return this.config == config && this.kb == kb;
+    }
+
+    /**
+     * Formats knowledge base entries as examples, one {@code "- question -> answer"} per line.
+     * @param entries the entries, may be null
+     * @param limit the maximum number of entries
+     * @return the examples
+     */
+    static String examples(List<IKnowledge> entries, int limit) {
+        final StringBuilder examples = new StringBuilder();
+        int count = 0;
+        for (IKnowledge entry : entries != null ? entries : List.<IKnowledge>of()) {
+            if (count >= limit) break;
+            examples.append(example(entry)).append("\n");
+            count++;
+        }
+        return examples.toString().trim();
+    }
+
+    /**
+     * Formats a knowledge base entry as an example line, without line separator.
+     * @param entry the entry
+     * @return {@code "- question -> answer"}
+     */
+    static String example(IKnowledge entry) {
+        return "- " + entry.getQuestion() + " -> " + entry.getAnswer();
+    }
+
+    /**
+     * The entries giving the default examples: the first {@link #EXAMPLE_COUNT} entries of the knowledge base.
+     */
+    List<IKnowledge> defaultEntries() {
+        return kb == null ? List.of() : kb.subList(0, Math.min(EXAMPLE_COUNT, kb.size()));
+    }
+
+    /**
+     * Tells whether the prompt may contain examples; without template, the prompt is the question alone.
+     */
+    boolean hasExamples() {
+        if (format != null)
+            return true;
+        for (int i = 0; questionSlots != null && i < questionSlots.length; i++) {
+            if (!questionSlots[i])
+                return true;
+        }
+        return false;
+    }
+}
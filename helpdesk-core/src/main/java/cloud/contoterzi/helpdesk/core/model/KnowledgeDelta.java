@@ -0,0 +1,111 @@
+package cloud.contoterzi.helpdesk.core.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of changes to the knowledge base: entries added or updated, and entries removed, by id.
+ * The entries are matched by id, so the ids of the knowledge base entries must be set and unique,
+ * see {@link #checkIds(List)}.
+ */
+public class KnowledgeDelta {
+    /**
+     * The id of an entry read without one.
+     */
+    public static final int MISSING_ID = 0;
+
+    /**
+     * The entries added or replacing the entry with the same id, by id.
+     */
+    private final Map<Integer, IKnowledge> upserts;
+
+    /**
+     * The ids of the removed entries.
+     */
+    private final Set<Integer> removedIds;
+
+    /**
+     * Default constructor.
+     * @param upserts the entries to add, or to replace the entries with the same id.
+     * @param removedIds the ids of the entries to remove.
+     * @throws IllegalArgumentException if two upserts have the same id.
+     */
+    public KnowledgeDelta(Collection<? extends IKnowledge> upserts, Collection<Integer> removedIds) {
+        final Map<Integer, IKnowledge> byId = new LinkedHashMap<>();
+        for (IKnowledge entry : upserts) {
+            if (byId.put(entry.getId(), entry) != null)
+                throw new IllegalArgumentException("Duplicate id in the knowledge delta: " + entry.getId());
+        }
+        this.upserts = byId;
+        this.removedIds = new LinkedHashSet<>(removedIds);
+        this.removedIds.removeAll(byId.keySet());
+    }
+
+    /**
+     * Gets the entries added or updated by this delta.
+     * @return the entries, in the order they were given.
+     */
+    public Collection<IKnowledge> getUpserts() {
+        return upserts.values();
+    }
+
+    /**
+     * Gets the ids of the entries removed by this delta.
+     * @return the ids of the removed entries.
+     */
+    public Set<Integer> getRemovedIds() {
+        return removedIds;
+    }
+
+    /**
+     * Tells whether this delta changes or removes the entry with the given id.
+     * @param id the id of the entry.
+     * @return true if the entry is updated or removed.
+     */
+    public boolean affects(int id) {
+        return upserts.containsKey(id) || removedIds.contains(id);
+    }
+
+    /**
+     * Checks that this delta can be applied by id to a knowledge base: every entry of the knowledge base
+     * and of the delta has an id other than {@link #MISSING_ID}, and no two knowledge base entries share one.
+     * @param kb the knowledge base.
+     * @throws IllegalArgumentException if an id is missing or repeated.
+     */
+    public void checkIds(List<IKnowledge> kb) {
+        final Set<Integer> ids = new HashSet<>(kb.size() * 2);
+        for (IKnowledge entry : kb) {
+            if (entry.getId() == MISSING_ID)
+                throw new IllegalArgumentException("Knowledge base entry without id: " + entry.getQuestion());
+            if (!ids.add(entry.getId()))
+                throw new IllegalArgumentException("Duplicate knowledge base id: " + entry.getId());
+        }
+        if (upserts.containsKey(MISSING_ID) || removedIds.contains(MISSING_ID))
+            throw new IllegalArgumentException("Knowledge delta entry without id");
+    }
+
+    /**
+     * Applies this delta to a knowledge base, which is left unchanged: the updated entries keep their position,
+     * the removed ones are dropped and the new ones are appended.
+     * @param kb the knowledge base.
+     * @return the updated knowledge base.
+     */
+    public List<IKnowledge> applyTo(List<IKnowledge> kb) {
+        final Map<Integer, IKnowledge> pending = new LinkedHashMap<>(upserts);
+        final List<IKnowledge> updated = new ArrayList<>(kb.size() + upserts.size());
+        for (IKnowledge entry : kb) {
+            if (removedIds.contains(entry.getId()))
+                continue;
+            final IKnowledge replacement = pending.remove(entry.getId());
+            updated.add(replacement != null ? replacement : entry);
+        }
+        updated.addAll(pending.values());
+        return updated;
+    }
+}
@@ -0,0 +1,42 @@
+package cloud.contoterzi.helpdesk.core.model;
+
+/**
+ * A knowledge base entry together with its similarity score to a question.
+ */
+public class ScoredKnowledge {
+    /**
+     * The knowledge base entry.
+     */
+    private final IKnowledge entry;
+
+    /**
+     * The similarity score of the entry, {@link Double#NaN} if the service does not expose it.
+     */
+    private final double score;
+
+    /**
+     * Default constructor.
+     * @param entry the knowledge base entry.
+     * @param score the similarity score of the entry.
+     */
+    public ScoredKnowledge(IKnowledge entry, double score) {
+        this.entry = entry;
+        this.score = score;
+    }
+
+    /**
+     * Gets the knowledge base entry.
+     * @return the knowledge base entry.
+     */
+    public IKnowledge getEntry() {
+        return entry;
+    }
+
+    /**
+     * Gets the similarity score of the entry.
+     * @return the similarity score, {@link Double#NaN} if unknown.
+     */
+    public double getScore() {
+        return score;
+    }
+}
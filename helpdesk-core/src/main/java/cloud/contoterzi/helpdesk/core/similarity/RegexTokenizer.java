@@ -0,0 +1,26 @@
+package cloud.contoterzi.helpdesk.core.similarity;
+
+import java.util.regex.Pattern;
+
+/**
+ * Tokenizer based on the regular expression {@code \b\w+\b} applied to the lower-cased text.
+ * It is the reference behaviour of {@link WordTokenizer}, which is faster and does not allocate.
+ */
+public final class RegexTokenizer implements Tokenizer {
+
+    public static final RegexTokenizer INSTANCE = new RegexTokenizer();
+
+    private static final Pattern WORD_PATTERN = Pattern.compile("\\b\\w+\\b");
+
+    private RegexTokenizer() {
+    }
+
+    @Override
+    public void tokenize(CharSequence text, TokenSink sink) {
+        var matcher = WORD_PATTERN.matcher(text.toString().toLowerCase());
+        while (matcher.find()) {
+            char[] token = matcher.group().toCharArray();
+            sink.accept(token, token.length);
+        }
+    }
+}
@@ -2,4 +2,12 @@ package cloud.contoterzi.helpdesk.core.similarity;
 
 public interface SimilarityAlgorithm {
     double compute(String a, String b);
-}
\ No newline at end of file
+
+    /**
+     * Returns the tokenizer used to split the texts into words.
+     * @return the tokenizer of the algorithm
+     */
+    default Tokenizer tokenizer() {
+        return WordTokenizer.INSTANCE;
+    }
+}
@@ -0,0 +1,29 @@
+package cloud.contoterzi.helpdesk.core.similarity;
+
+/**
+ * Splits a text into lower-case tokens, handing every token to a {@link TokenSink}.
+ * Implementations should not create a String per token: the sink receives the characters
+ * of the token in a buffer which is reused for the next token.
+ */
+public interface Tokenizer {
+
+    /**
+     * Receives the tokens of a text.
+     */
+    @FunctionalInterface
+    interface TokenSink {
+        /**
+         * Called once per token, in order of appearance.
+         * @param buffer the characters of the token, valid only during the call
+         * @param length the number of characters of the token
+         */
+        void accept(char[] buffer, int length);
+    }
+
+    /**
+     * Tokenizes the text.
+     * @param text the text to tokenize, must not be null
+     * @param sink the receiver of the tokens
+     */
+    void tokenize(CharSequence text, TokenSink sink);
+}
@@ -0,0 +1,86 @@
+package cloud.contoterzi.helpdesk.core.similarity;
+
+import java.util.Arrays;
+
+/**
+ * Hand-written word tokenizer reproducing what the regular expression {@code \b\w+\b} finds
+ * in a lower-cased text on Java 17. A word is a maximal run of letters, digits and underscores;
+ * {@code \w} only matches {@code [a-z0-9_]} but the word boundary {@code \b} considers any
+ * Unicode letter or digit, so a word containing a non ASCII letter or digit (e.g. "café")
+ * yields no token at all.
+ * The characters are lower-cased one by one, independently of the default locale;
+ * the capital I with dot above counts as a non ASCII letter, as its lower-case form
+ * carries a combining dot.
+ * No String is created: the tokens are written into a per-thread buffer.
+ */
+public final class WordTokenizer implements Tokenizer {
+
+    public static final WordTokenizer INSTANCE = new WordTokenizer();
+
+    private static final int CAPITAL_I_WITH_DOT_ABOVE = 0x130;
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[64]);
+
+    private WordTokenizer() {
+    }
+
+    @Override
+    public void tokenize(CharSequence text, TokenSink sink) {
+        char[] buffer = BUFFER.get();
+        int length = 0;
+        boolean inWord = false;
+        boolean ascii = true;
+        int i = 0;
+        int textLength = text.length();
+
+        while (i < textLength) {
+            char ch = text.charAt(i);
+            int codePoint = ch;
+            if (Character.isHighSurrogate(ch)) {
+                codePoint = Character.codePointAt(text, i);
+            }
+            i += Character.charCount(codePoint);
+
+            int lower = codePoint < 128 ? toLowerAscii(codePoint) : toLowerWordChar(codePoint);
+            if (isAsciiWordChar(lower)) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                    BUFFER.set(buffer);
+                }
+                buffer[length++] = (char) lower;
+                inWord = true;
+            } else if (isWordChar(lower) || (inWord && Character.getType(lower) == Character.NON_SPACING_MARK)) {
+                inWord = true;
+                ascii = false;
+            } else {
+                if (inWord && ascii) {
+                    sink.accept(buffer, length);
+                }
+                inWord = false;
+                ascii = true;
+                length = 0;
+            }
+        }
+        if (inWord && ascii) {
+            sink.accept(buffer, length);
+        }
+    }
+
+    private static int toLowerAscii(int ch) {
+        return ch >= 'A' && ch <= 'Z' ? ch + ('a' - 'A') : ch;
+    }
+
+    /**
+     * Lower-cases a non ASCII character; only a few (e.g. the Kelvin sign) become ASCII word characters.
+     */
+    private static int toLowerWordChar(int codePoint) {
+        return codePoint == CAPITAL_I_WITH_DOT_ABOVE ? codePoint : Character.toLowerCase(codePoint);
+    }
+
+    private static boolean isAsciiWordChar(int ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9') || ch == '_';
+    }
+
+    private static boolean isWordChar(int codePoint) {
+        return codePoint == '_' || Character.isLetterOrDigit(codePoint);
+    }
+}
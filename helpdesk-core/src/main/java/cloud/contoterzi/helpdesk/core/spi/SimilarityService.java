@@ -2,8 +2,11 @@ package cloud.contoterzi.helpdesk.core.spi;
 
 import cloud.contoterzi.helpdesk.core.model.IKnowledge;
 import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeDelta;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
 import cloud.contoterzi.helpdesk.core.config.YamlConfig;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -25,6 +28,30 @@ public interface SimilarityService {
      */
     void init(YamlConfig appConfig);
 
+    /**
+     * Prepares the per-knowledge-base structures of the service (e.g. precomputed term vectors),
+     * so that a request only has to process the incoming question.
+     * It is called after {@link #init(YamlConfig)} and whenever the knowledge base is replaced.
+     * The default implementation does nothing.
+     * @param kb The complete knowledge base.
+     */
+    default void index(List<IKnowledge> kb) {
+    }
+
+    /**
+     * Updates the per-knowledge-base structures of the service after a change of the knowledge base,
+     * without re-indexing the unchanged entries when the service supports it.
+     * The requests running while the delta is applied keep using the structures they started with.
+     * The default implementation re-indexes the updated knowledge base.
+     * @param updatedKb The knowledge base with the delta applied, see {@link KnowledgeDelta#applyTo(List)}.
+     * @param delta The changes applied to the previously indexed knowledge base.
+     * @return true if the delta was applied incrementally, false if the knowledge base was re-indexed.
+     */
+    default boolean applyDelta(List<IKnowledge> updatedKb, KnowledgeDelta delta) {
+        index(updatedKb);
+        return false;
+    }
+
     /**
      * Finds the best matching knowledge base item for the given question.
      * @param question The question to be answered.
@@ -34,6 +61,23 @@ public interface SimilarityService {
      */
     KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold);
 
+    /**
+     * Finds the best matching knowledge base item of every question of a batch, e.g. to re-score
+     * historical questions when tuning the threshold.
+     * The default implementation calls {@link #findBestMatch(String, List, double)} for every question.
+     * @param questions The questions to be answered.
+     * @param kb The complete knowledge base.
+     * @param threshold The minimum similarity score required for a match.
+     * @return The results of the similarity searches, in the order of the questions.
+     */
+    default List<KnowledgeBestMatch> findBestMatches(List<String> questions, List<IKnowledge> kb, double threshold) {
+        List<KnowledgeBestMatch> result = new ArrayList<>(questions.size());
+        for (String question : questions) {
+            result.add(findBestMatch(question, kb, threshold));
+        }
+        return result;
+    }
+
     /**
      * Returns top-k entries most relevant to 'question'
      * @param question The question to be answered
@@ -42,4 +86,24 @@ public interface SimilarityService {
      * @return The top-k entries most relevant to 'question'
      */
     List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK);
+
+    /**
+     * Returns top-k entries most relevant to 'question' with their similarity scores,
+     * ordered by decreasing score.
+     * The default implementation wraps {@link #topK(String, List, int)} with {@link Double#NaN} scores.
+     * @param question The question to be answered
+     * @param kb The complete knowledge base.
+     * @param topK The number of top entries to return
+     * @return The top-k entries most relevant to 'question', with their scores
+     */
+    default List<ScoredKnowledge> scoredTopK(String question, List<IKnowledge> kb, int topK) {
+        List<IKnowledge> entries = topK(question, kb, topK);
+        if (entries == null)
+            return List.of();
+        List<ScoredKnowledge> result = new ArrayList<>(entries.size());
+        for (IKnowledge entry : entries) {
+            result.add(new ScoredKnowledge(entry, Double.NaN));
+        }
+        return result;
+    }
 }
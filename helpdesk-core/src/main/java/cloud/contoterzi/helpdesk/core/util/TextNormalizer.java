@@ -0,0 +1,49 @@
+package cloud.contoterzi.helpdesk.core.util;
+
+import java.util.Locale;
+
+/**
+ * Utility class normalizing questions so that texts differing only by case, punctuation
+ * or spacing compare equal.
+ * Punctuation separates words like spaces do, so the words of a normalized text are those of the
+ * original one: the normalized text can stand for the original one wherever only its words matter.
+ */
+public class TextNormalizer {
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * Normalizes a text: lower-cased, runs of whitespace, punctuation and symbols
+     * collapsed into a single space and trimmed.
+     * For example, {@code "  How do I reset my PASSWORD?? "} becomes {@code "how do i reset my password"}
+     * and {@code "What's up"} becomes {@code "what s up"}.
+     *
+     * @param text The text to normalize, may be null.
+     * @return The normalized text, an empty string for a null text.
+     */
+    public static String normalize(String text) {
+        if (text == null)
+            return "";
+
+        final String lower = text.toLowerCase(Locale.ROOT);
+        final StringBuilder normalized = new StringBuilder(lower.length());
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < lower.length()) {
+            int codePoint = lower.codePointAt(i);
+            i += Character.charCount(codePoint);
+            // Combining marks belong to the word they follow (e.g. the dot of a lower-cased capital I with dot above)
+            if (Character.isLetterOrDigit(codePoint) || codePoint == '_'
+                    || Character.getType(codePoint) == Character.NON_SPACING_MARK) {
+                if (pendingSpace && normalized.length() > 0)
+                    normalized.append(' ');
+                pendingSpace = false;
+                normalized.appendCodePoint(codePoint);
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return normalized.toString();
+    }
+}
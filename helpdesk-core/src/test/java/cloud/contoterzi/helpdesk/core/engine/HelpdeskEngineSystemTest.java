@@ -76,7 +76,7 @@ class HelpdeskEngineSystemTest {
         // Arrange: ALWAYS_CALL_LLM is set to false by Maven surefire plugin
         
         HelpdeskRequest request = new HelpdeskRequest();
-        request.setQuestion("How do I reset my password?");
+        request.setQuestion("I forgot my password, how can I reset it?");
         
         IKnowledge bestMatch = testKnowledgeBase.get(0);
         KnowledgeBestMatch match = new KnowledgeBestMatch(false, 0.95, bestMatch);
@@ -106,6 +106,29 @@ class HelpdeskEngineSystemTest {
         }
     }
 
+    @Test
+    void testProcessQuestion_WithVerbatimQuestion_SkipsSimilarityScoring() throws Exception {
+        // Arrange: same question as a knowledge base entry, except for case, punctuation and spacing
+        HelpdeskRequest request = new HelpdeskRequest();
+        request.setQuestion("  how do I RESET my password ");
+        
+        try (MockedStatic<SpiLoader> mockedSpiLoader = mockStatic(SpiLoader.class)) {
+            setupMockSpiLoader(mockedSpiLoader);
+            
+            helpdeskEngine.init();
+            HelpdeskResponse response = helpdeskEngine.processQuestion(request);
+            
+            // Assert
+            assertEquals("You can reset your password by clicking the 'Forgot Password' link on the login page.",
+                        response.getAnswer());
+            assertEquals(1.0, response.getConfidence());
+            assertFalse(response.isEscalation());
+            assertEquals("kb", response.getSource());
+            verify(mockSimilarityService, never()).findBestMatch(anyString(), any(), anyDouble());
+            verify(mockLlmClient, never()).ask(any());
+        }
+    }
+
     @Test
     void testProcessQuestion_WithAlwaysCallLlmTrue_InvokesLlmService() throws Exception {
         // Arrange: ALWAYS_CALL_LLM can be changed via environment variable, but this test focuses on LLM path
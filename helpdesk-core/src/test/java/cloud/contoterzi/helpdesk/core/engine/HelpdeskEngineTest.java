@@ -2,9 +2,14 @@ package cloud.contoterzi.helpdesk.core.engine;
 
 import cloud.contoterzi.helpdesk.core.llm.ProviderException;
 import cloud.contoterzi.helpdesk.core.model.*;
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
 import cloud.contoterzi.helpdesk.core.model.impl.KnowledgeEntry;
+import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class HelpdeskEngineTest {
@@ -145,4 +150,54 @@ class HelpdeskEngineTest {
         assertEquals("4", response.getAnswer());
         assertEquals(100L, response.getTimeMs());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testDeltaOnEntriesWithoutIdsIsRejected() throws Exception {
+        HelpdeskEngine engine = new HelpdeskEngine();
+        AtomicInteger deltas = new AtomicInteger();
+        setPrivateField(engine, "similarityService", new SimilarityService() {
+            @Override
+            public void init(YamlConfig appConfig) {
+            }
+
+            @Override
+            public KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold) {
+                return new KnowledgeBestMatch(true, 0.0, null);
+            }
+
+            @Override
+            public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+                return List.of();
+            }
+
+            @Override
+            public boolean applyDelta(List<IKnowledge> updatedKb, KnowledgeDelta delta) {
+                deltas.incrementAndGet();
+                return true;
+            }
+        });
+        // As read from a JSON file without ids
+        KnowledgeEntry first = new KnowledgeEntry();
+        first.setQuestion("How do I create a new farm?");
+        KnowledgeEntry second = new KnowledgeEntry();
+        second.setQuestion("How do I add workers?");
+        List<IKnowledge> kb = List.of(first, second);
+        setPrivateField(engine, "kb", kb);
+
+        KnowledgeDelta delta = new KnowledgeDelta(List.of(), List.of(0));
+        assertThrows(IllegalArgumentException.class, () -> engine.applyKnowledgeDelta(delta));
+        assertEquals(0, deltas.get());
+
+        second.setId(1);
+        first.setId(1);
+        KnowledgeDelta duplicate = new KnowledgeDelta(List.of(), List.of(1));
+        assertThrows(IllegalArgumentException.class, () -> engine.applyKnowledgeDelta(duplicate));
+        assertEquals(0, deltas.get());
+    }
+
+    private static void setPrivateField(Object object, String fieldName, Object value) throws Exception {
+        var field = object.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+}
@@ -0,0 +1,84 @@
+package cloud.contoterzi.helpdesk.core.engine;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.LlmResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmAnswerCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final PromptTemplate template = PromptTemplate.compile(config(), List.of());
+
+    @Test
+    void testNormalizedQuestionsShareTheAnswer() {
+        LlmAnswerCache cache = new LlmAnswerCache(10, 60_000, 0.0, clock::get);
+        LlmResponse response = new LlmResponse("Restart the tractor.", 1_500);
+        assertNull(cache.get("How do I restart the tractor?", template));
+        cache.put("How do I restart the tractor?", template, response);
+
+        assertSame(response, cache.get("how do i RESTART the tractor", template));
+        assertNull(cache.get("How do I stop the tractor?", template));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    void testAnswersExpire() {
+        LlmAnswerCache cache = new LlmAnswerCache(10, 60_000, 0.0, clock::get);
+        cache.put("question", template, new LlmResponse("answer"));
+        clock.set(60_000L * 1_000_000L);
+        assertNotNull(cache.get("question", template));
+        clock.incrementAndGet();
+        assertNull(cache.get("question", template));
+    }
+
+    @Test
+    void testAnswersOfAnotherPromptAreIgnored() {
+        LlmAnswerCache cache = new LlmAnswerCache(10, 60_000, 0.0, clock::get);
+        cache.put("question", template, new LlmResponse("answer"));
+        assertNull(cache.get("question", PromptTemplate.compile(config(), List.of())));
+
+        cache.put("question", template, new LlmResponse("answer"));
+        cache.clear();
+        assertNull(cache.get("question", template));
+    }
+
+    @Test
+    void testLeastRecentlyUsedAnswerIsEvicted() {
+        LlmAnswerCache cache = new LlmAnswerCache(2, 60_000, 0.0, clock::get);
+        cache.put("first", template, new LlmResponse("1"));
+        cache.put("second", template, new LlmResponse("2"));
+        assertNotNull(cache.get("first", template));
+        cache.put("third", template, new LlmResponse("3"));
+
+        assertNotNull(cache.get("first", template));
+        assertNull(cache.get("second", template));
+        assertNotNull(cache.get("third", template));
+    }
+
+    @Test
+    void testNearDuplicateQuestions() {
+        LlmAnswerCache cache = new LlmAnswerCache(10, 60_000, 0.9, clock::get);
+        cache.put("How do I restart the tractor?", template, new LlmResponse("Restart the tractor."));
+        cache.put("How do I paint the barn?", template, new LlmResponse("Paint the barn."));
+
+        assertEquals("Restart the tractor.", cache.get("How do I restart the tractor please?", template).getAnswer());
+        assertEquals("Paint the barn.", cache.get("how do I paint the barn red", template).getAnswer());
+        assertNull(cache.get("How do I sell the tractor?", template));
+
+        cache.put("How do I sell the tractor?", template, new LlmResponse("Sell the tractor."));
+        assertEquals("Sell the tractor.", cache.get("How do I sell the tractor please?", template).getAnswer());
+    }
+
+    private static YamlConfig config() {
+        String yaml = "llm:\n  prompts:\n    template: \"%s %s %s\"\n";
+        return new YamlConfig(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+    }
+}
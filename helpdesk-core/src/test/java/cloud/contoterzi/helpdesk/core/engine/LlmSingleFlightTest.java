@@ -0,0 +1,121 @@
+package cloud.contoterzi.helpdesk.core.engine;
+
+import cloud.contoterzi.helpdesk.core.llm.AuthException;
+import cloud.contoterzi.helpdesk.core.llm.LlmException;
+import cloud.contoterzi.helpdesk.core.model.LlmResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmSingleFlightTest {
+
+    private static final int WAITERS = 7;
+
+    @Test
+    void testIdenticalPromptsShareOneCall() throws Exception {
+        LlmSingleFlight singleFlight = new LlmSingleFlight();
+        LlmResponse response = new LlmResponse("Restart the tractor.", 1_500);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Object> outcomes = runConcurrently(singleFlight, release, () -> {
+            calls.incrementAndGet();
+            awaitQuietly(release);
+            return response;
+        });
+
+        assertEquals(1, calls.get());
+        assertEquals(WAITERS, singleFlight.coalesced());
+        for (Object outcome : outcomes) {
+            assertSame(response, outcome);
+        }
+    }
+
+    @Test
+    void testWaitersShareTheFailure() throws Exception {
+        LlmSingleFlight singleFlight = new LlmSingleFlight();
+        AuthException failure = new AuthException("invalid key");
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Object> outcomes = runConcurrently(singleFlight, release, () -> {
+            calls.incrementAndGet();
+            awaitQuietly(release);
+            throw failure;
+        });
+
+        assertEquals(1, calls.get());
+        for (Object outcome : outcomes) {
+            assertSame(failure, outcome);
+            assertTrue(((LlmException) outcome).isNotRetryable());
+        }
+    }
+
+    @Test
+    void testCompletedCallsAreNotShared() throws Exception {
+        LlmSingleFlight singleFlight = new LlmSingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+        LlmSingleFlight.Call call = () -> new LlmResponse("answer " + calls.incrementAndGet());
+
+        assertEquals("answer 1", singleFlight.execute("Question?", call).getAnswer());
+        assertEquals("answer 2", singleFlight.execute("question", call).getAnswer());
+        assertEquals("answer 3", singleFlight.execute("Another question", call).getAnswer());
+        assertEquals(0, singleFlight.coalesced());
+    }
+
+    /**
+     * Sends the same prompt, written differently, from concurrent requests: the first one blocks in its call
+     * until the others all wait for it.
+     * @return the response or the exception of every request
+     */
+    private static List<Object> runConcurrently(LlmSingleFlight singleFlight, CountDownLatch release,
+                                                LlmSingleFlight.Call call) throws Exception {
+        String[] prompts = {"How do I restart the tractor?", "how do I restart the TRACTOR", "How do I restart the tractor ?"};
+        ExecutorService executor = Executors.newFixedThreadPool(WAITERS + 1);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i <= WAITERS; i++) {
+                String prompt = prompts[i % prompts.length];
+                futures.add(executor.submit(() -> outcome(singleFlight, prompt, call)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (singleFlight.coalesced() < WAITERS && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            List<Object> outcomes = new ArrayList<>();
+            for (Future<Object> future : futures) {
+                outcomes.add(future.get(10, TimeUnit.SECONDS));
+            }
+            return outcomes;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Object outcome(LlmSingleFlight singleFlight, String prompt, LlmSingleFlight.Call call) {
+        try {
+            return singleFlight.execute(prompt, call);
+        } catch (LlmException ex) {
+            return ex;
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
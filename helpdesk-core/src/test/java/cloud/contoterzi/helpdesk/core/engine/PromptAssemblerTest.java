@@ -0,0 +1,84 @@
+package cloud.contoterzi.helpdesk.core.engine;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.impl.KnowledgeEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptAssemblerTest {
+
+    private static final String QUESTION = "How do I delete a farm?";
+
+    @Test
+    void testEstimateTokens() {
+        // how, do, i, reset (2), my, password (2), ?
+        assertEquals(9, PromptAssembler.estimateTokens("How do I reset my password?"));
+        assertEquals(0, PromptAssembler.estimateTokens("  \n"));
+        assertEquals(0, PromptAssembler.estimateTokens(null));
+        assertEquals(3, PromptAssembler.estimateTokens("- ->"));
+    }
+
+    @Test
+    void testExamplesFillTheBudgetInOrder() {
+        List<IKnowledge> kb = knowledgeBase(5);
+        PromptTemplate template = PromptTemplate.compile(config(), kb);
+        List<IKnowledge> relevant = List.of(kb.get(3), kb.get(1), kb.get(4));
+
+        int fixed = PromptAssembler.estimateTokens(template.render(QUESTION, ""));
+        int first = PromptAssembler.estimateTokens(PromptTemplate.example(kb.get(3)));
+        int second = PromptAssembler.estimateTokens(PromptTemplate.example(kb.get(1))) + 1;
+
+        String prompt = new PromptAssembler(fixed + first + second).assemble(template, QUESTION, relevant);
+        assertEquals(template.render(QUESTION, PromptTemplate.example(kb.get(3)) + "\n"
+                + PromptTemplate.example(kb.get(1))), prompt);
+        assertTrue(PromptAssembler.estimateTokens(prompt) <= fixed + first + second);
+
+        // One token short of the second example
+        prompt = new PromptAssembler(fixed + first + second - 1).assemble(template, QUESTION, relevant);
+        assertEquals(template.render(QUESTION, PromptTemplate.example(kb.get(3))), prompt);
+    }
+
+    @Test
+    void testQuestionIsKeptOverBudget() {
+        List<IKnowledge> kb = knowledgeBase(3);
+        PromptTemplate template = PromptTemplate.compile(config(), kb);
+        assertEquals(template.render(QUESTION, ""), new PromptAssembler(1).assemble(template, QUESTION, kb));
+        // Default examples: the first entries
+        assertEquals(template.render(QUESTION, PromptTemplate.examples(kb, 3)),
+                new PromptAssembler(1_000).assemble(template, QUESTION, null));
+    }
+
+    @Test
+    void testNoBudget() {
+        List<IKnowledge> kb = knowledgeBase(12);
+        PromptTemplate template = PromptTemplate.compile(config(), kb);
+        assertEquals(template.render(QUESTION), new PromptAssembler(0).assemble(template, QUESTION, null));
+        assertEquals(template.render(QUESTION, PromptTemplate.examples(kb, 12)),
+                new PromptAssembler(0).assemble(template, QUESTION, kb));
+    }
+
+    private static YamlConfig config() {
+        String yaml = "llm:\n  prompts:\n    preamble: \"You are a helpful assistant.\"\n"
+                + "    template: \"%s%n%nExamples:%n%s%n%nUser question: %s%nAnswer:\"\n";
+        return new YamlConfig(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<IKnowledge> knowledgeBase(int size) {
+        List<IKnowledge> kb = new ArrayList<>();
+        for (int i = 1; i <= size; i++) {
+            KnowledgeEntry entry = new KnowledgeEntry();
+            entry.setId(i);
+            entry.setQuestion("How do I configure feature number " + i + "?");
+            entry.setAnswer("Open the settings page and enable feature " + i + " in the advanced section.");
+            kb.add(entry);
+        }
+        return kb;
+    }
+}
@@ -0,0 +1,89 @@
+package cloud.contoterzi.helpdesk.core.engine;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.impl.KnowledgeEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptTemplateTest {
+
+    private static final String PREAMBLE = "You are a helpful assistant.";
+
+    @Test
+    void testCompiledPromptMatchesTheFormattedTemplate() {
+        String template = "%s%n%nExamples:%n%s%n%nUser question: %s%nAnswer:";
+        List<IKnowledge> kb = knowledgeBase(12);
+        PromptTemplate compiled = PromptTemplate.compile(config(template), kb);
+
+        StringBuilder examples = new StringBuilder();
+        for (int i = 1; i <= PromptTemplate.EXAMPLE_COUNT; i++) {
+            examples.append("- Question ").append(i).append("? -> Answer ").append(i).append("\n");
+        }
+        for (String question : new String[]{"How do I delete a farm?", "100% sure? %s", ""}) {
+            assertEquals(String.format(template, PREAMBLE, examples.toString().trim(), question),
+                    compiled.render(question));
+        }
+    }
+
+    @Test
+    void testQuestionRepeatedOrTransformed() {
+        PromptTemplate repeated = PromptTemplate.compile(config("Q: %3$s (%3$s) %1$s"), knowledgeBase(1));
+        assertEquals("Q: why? (why?) " + PREAMBLE, repeated.render("why?"));
+
+        PromptTemplate upperCase = PromptTemplate.compile(config("%2$s / %3$S"), knowledgeBase(1));
+        assertEquals("- Question 1? -> Answer 1 / WHY?", upperCase.render("why?"));
+    }
+
+    @Test
+    void testGivenExamplesReplaceTheFirstEntries() {
+        String template = "%s | %s | %s";
+        PromptTemplate compiled = PromptTemplate.compile(config(template), knowledgeBase(3));
+        String examples = PromptTemplate.examples(knowledgeBase(3).subList(2, 3), 10);
+        assertEquals("- Question 3? -> Answer 3", examples);
+        assertEquals(PREAMBLE + " | - Question 3? -> Answer 3 | why?", compiled.render("why?", examples));
+
+        PromptTemplate truncated = PromptTemplate.compile(config("%2$.12s|%3$s"), knowledgeBase(3));
+        assertEquals("- Question 3|why?", truncated.render("why?", examples));
+    }
+
+    @Test
+    void testMissingOrInvalidTemplateKeepsTheQuestion() {
+        assertEquals("why?", PromptTemplate.compile(config(null), knowledgeBase(1)).render("why?"));
+        assertEquals("why?", PromptTemplate.compile(config("%d"), knowledgeBase(1)).render("why?"));
+    }
+
+    @Test
+    void testCompiledFromTheSameInstances() {
+        YamlConfig config = config("%s %s %s");
+        List<IKnowledge> kb = knowledgeBase(2);
+        PromptTemplate compiled = PromptTemplate.compile(config, kb);
+        assertTrue(compiled.isCompiledFrom(config, kb));
+        assertFalse(compiled.isCompiledFrom(config, new ArrayList<>(kb)));
+        assertFalse(compiled.isCompiledFrom(config("%s %s %s"), kb));
+    }
+
+    private static YamlConfig config(String template) {
+        String yaml = "llm:\n  prompts:\n    preamble: \"" + PREAMBLE + "\"\n"
+                + (template != null ? "    template: \"" + template + "\"\n" : "");
+        return new YamlConfig(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<IKnowledge> knowledgeBase(int size) {
+        List<IKnowledge> kb = new ArrayList<>();
+        for (int i = 1; i <= size; i++) {
+            KnowledgeEntry entry = new KnowledgeEntry();
+            entry.setId(i);
+            entry.setQuestion("Question " + i + "?");
+            entry.setAnswer("Answer " + i);
+            kb.add(entry);
+        }
+        return kb;
+    }
+}
@@ -2,7 +2,9 @@ package cloud.contoterzi.helpdesk.core.engine;
 
 import cloud.contoterzi.helpdesk.core.config.YamlConfig;
 import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
 import cloud.contoterzi.helpdesk.core.model.impl.KnowledgeEntry;
+import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
 import org.junit.jupiter.api.Test;
 import org.yaml.snakeyaml.Yaml;
 
@@ -45,16 +47,12 @@ class TemplateTest {
         
         List<IKnowledge> testKb = List.of(entry1, entry2);
         
-        // Use reflection to access private methods and fields
-        Method buildPromptMethod = HelpdeskEngine.class.getDeclaredMethod("buildPromptWithTemplate", String.class);
-        buildPromptMethod.setAccessible(true);
-        
         // Set private fields
         setPrivateField(engine, "config", config);
         setPrivateField(engine, "kb", testKb);
         
         // Act
-        String result = (String) buildPromptMethod.invoke(engine, "How do I delete a farm?");
+        String result = engine.buildPromptWithTemplate("How do I delete a farm?");
         
         // Assert
         assertNotNull(result);
@@ -70,6 +68,53 @@ class TemplateTest {
         assertTrue(lines.length >= 6); // At least preamble + blank + Examples + examples + blank + question + Answer
     }
     
+    @Test
+    void testExamplesAreTheMostSimilarEntries() throws Exception {
+        HelpdeskEngine engine = new HelpdeskEngine();
+        String yamlContent = """
+            llm:
+              prompts:
+                preamble: "You are a helpful assistant for agricultural software."
+                template: "%s%n%nExamples:%n%s%n%nUser question: %s%nAnswer:"
+            """;
+        YamlConfig config = new YamlConfig(new java.io.ByteArrayInputStream(yamlContent.getBytes()));
+
+        KnowledgeEntry farm = new KnowledgeEntry();
+        farm.setQuestion("How do I create a new farm?");
+        farm.setAnswer("Go to Farm Management -> Add New Farm");
+        KnowledgeEntry workers = new KnowledgeEntry();
+        workers.setQuestion("How do I add workers?");
+        workers.setAnswer("Navigate to Workers -> Add Worker");
+        List<IKnowledge> testKb = List.of(farm, workers);
+
+        setPrivateField(engine, "config", config);
+        setPrivateField(engine, "kb", testKb);
+        setPrivateField(engine, "fewShot", 1);
+        setPrivateField(engine, "similarityService", new SimilarityService() {
+            @Override
+            public void init(YamlConfig appConfig) {
+            }
+
+            @Override
+            public KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold) {
+                return new KnowledgeBestMatch(true, 0.0, null);
+            }
+
+            @Override
+            public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+                return question.contains("worker") ? List.of(workers) : List.of();
+            }
+        });
+
+        String result = engine.buildPromptWithTemplate("How do I remove a worker?");
+        assertTrue(result.contains("How do I add workers? -> Navigate to Workers -> Add Worker"));
+        assertFalse(result.contains("How do I create a new farm?"));
+
+        // Nothing similar: the first entries
+        result = engine.buildPromptWithTemplate("What is the weather?");
+        assertTrue(result.contains("How do I create a new farm? -> Go to Farm Management -> Add New Farm"));
+    }
+
     @Test
     void testBuildPromptWithoutTemplate() throws Exception {
         // Arrange
@@ -85,15 +130,11 @@ class TemplateTest {
 
         YamlConfig config = new YamlConfig(new java.io.ByteArrayInputStream(yamlContent.getBytes()));
         
-        // Use reflection to access private methods and fields
-        Method buildPromptMethod = HelpdeskEngine.class.getDeclaredMethod("buildPromptWithTemplate", String.class);
-        buildPromptMethod.setAccessible(true);
-        
         // Set private fields
         setPrivateField(engine, "config", config);
         
         // Act
-        String result = (String) buildPromptMethod.invoke(engine, "How do I delete a farm?");
+        String result = engine.buildPromptWithTemplate("How do I delete a farm?");
         
         // Assert
         assertEquals("How do I delete a farm?", result); // Should return original question
@@ -0,0 +1,55 @@
+package cloud.contoterzi.helpdesk.core.model;
+
+import cloud.contoterzi.helpdesk.core.model.impl.KnowledgeEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KnowledgeDeltaTest {
+
+    @Test
+    void testApplyToKeepsPositionsOfUpdatedEntries() {
+        List<IKnowledge> kb = List.of(entry(1, "one"), entry(2, "two"), entry(3, "three"));
+        KnowledgeDelta delta = new KnowledgeDelta(List.of(entry(4, "four"), entry(2, "two bis")), List.of(1));
+
+        List<IKnowledge> updated = delta.applyTo(kb);
+        assertEquals(List.of("two bis", "three", "four"), updated.stream().map(IKnowledge::getQuestion).toList());
+        assertEquals(3, kb.size(), "The original knowledge base is left unchanged");
+    }
+
+    @Test
+    void testUpsertWinsOverRemoval() {
+        KnowledgeDelta delta = new KnowledgeDelta(List.of(entry(2, "two bis")), List.of(2, 3));
+        assertEquals(Set.of(3), delta.getRemovedIds());
+        assertTrue(delta.affects(2));
+        assertTrue(delta.affects(3));
+        assertFalse(delta.affects(1));
+        assertEquals(List.of("one", "two bis"), delta.applyTo(List.of(entry(1, "one"), entry(2, "two"), entry(3, "three")))
+                .stream().map(IKnowledge::getQuestion).toList());
+    }
+
+    @Test
+    void testIdsMustBeSetAndUnique() {
+        KnowledgeDelta delta = new KnowledgeDelta(List.of(entry(4, "four")), List.of(1));
+        delta.checkIds(List.of(entry(1, "one"), entry(2, "two")));
+
+        // Entries read from a JSON file without ids all have the id 0
+        assertThrows(IllegalArgumentException.class, () -> delta.checkIds(List.of(entry(0, "one"), entry(0, "two"))));
+        assertThrows(IllegalArgumentException.class, () -> delta.checkIds(List.of(entry(1, "one"), entry(1, "two"))));
+        assertThrows(IllegalArgumentException.class, () -> new KnowledgeDelta(List.of(), List.of(0))
+                .checkIds(List.of(entry(1, "one"))));
+        assertThrows(IllegalArgumentException.class, () -> new KnowledgeDelta(
+                List.of(entry(4, "four"), entry(4, "four bis")), List.of()));
+    }
+
+    private static IKnowledge entry(int id, String question) {
+        KnowledgeEntry entry = new KnowledgeEntry();
+        entry.setId(id);
+        entry.setQuestion(question);
+        entry.setAnswer("Answer " + id);
+        return entry;
+    }
+}
@@ -0,0 +1,75 @@
+package cloud.contoterzi.helpdesk.core.similarity;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Parity tests between the hand-written {@link WordTokenizer} and the regular expression it replaces.
+ */
+class WordTokenizerTest {
+
+    private static final String[] SAMPLES = {
+            "How do I register a new job?",
+            "HOW DO I REGISTER A NEW JOB?",
+            "What's the weather like?",
+            "How do I set the work date, registration date, and payment date?",
+            "job job job register",
+            "e-mail: user_name@example.com (ticket #4521)",
+            "  leading\tand\ntrailing   whitespace  ",
+            "snake_case_words and __dunder__ and 3.14159",
+            "Kelvin sign \u212a and \u00bfque tal?",
+            "",
+            "?!...",
+            "a"
+    };
+
+    private static final String ALPHABET = "abcXYZ019_ -.,?!'\"\t\n\u00a0\u00bf\u00ab\u2013()@#";
+
+    @Test
+    void testSamplesMatchTheRegex() {
+        for (String sample : SAMPLES) {
+            assertEquals(tokens(RegexTokenizer.INSTANCE, sample), tokens(WordTokenizer.INSTANCE, sample),
+                    "Tokens differ for: " + sample);
+        }
+    }
+
+    @Test
+    void testRandomTextsMatchTheRegex() {
+        Random random = new Random(42);
+        for (int n = 0; n < 2_000; n++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            String sample = text.toString();
+            assertEquals(tokens(RegexTokenizer.INSTANCE, sample), tokens(WordTokenizer.INSTANCE, sample),
+                    "Tokens differ for: " + sample);
+        }
+    }
+
+    @Test
+    void testLongTokensGrowTheBuffer() {
+        String longWord = "x".repeat(500);
+        assertEquals(List.of(longWord, "y"), tokens(WordTokenizer.INSTANCE, longWord + " y"));
+    }
+
+    @Test
+    void testWordsWithNonAsciiLettersAreDropped() {
+        assertEquals(List.of("au", "lait"), tokens(WordTokenizer.INSTANCE, "Caf\u00e9 au lait"));
+        assertEquals(List.of("x2"), tokens(WordTokenizer.INSTANCE, "na\u00efve_test x2"));
+        assertEquals(List.of("z"), tokens(WordTokenizer.INSTANCE, "\u00e9b1c z"));
+        assertEquals(List.of("visit"), tokens(WordTokenizer.INSTANCE, "visit \u0130stanbul"));
+    }
+
+    private static List<String> tokens(Tokenizer tokenizer, String text) {
+        List<String> tokens = new ArrayList<>();
+        tokenizer.tokenize(text, (buffer, length) -> tokens.add(new String(buffer, 0, length)));
+        return tokens;
+    }
+}
@@ -0,0 +1,29 @@
+package cloud.contoterzi.helpdesk.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextNormalizerTest {
+
+    @Test
+    void testCasePunctuationAndSpacingAreIgnored() {
+        assertEquals("e mail user name", TextNormalizer.normalize("E-mail: user.name"));
+        assertEquals("how do i reset my password", TextNormalizer.normalize("How do I reset my password?"));
+        assertEquals("how do i reset my password", TextNormalizer.normalize("  how do I RESET   my password!! "));
+        assertEquals("what s the weather like", TextNormalizer.normalize("What's the weather like?"));
+        assertEquals("settings users", TextNormalizer.normalize("Settings > Users"));
+    }
+
+    @Test
+    void testLettersAndDigitsAreKept() {
+        assertEquals("perché 2fa code_1", TextNormalizer.normalize("Perché\t2FA\ncode_1?"));
+    }
+
+    @Test
+    void testEmptyInputs() {
+        assertEquals("", TextNormalizer.normalize(null));
+        assertEquals("", TextNormalizer.normalize(""));
+        assertEquals("", TextNormalizer.normalize(" ?! "));
+    }
+}
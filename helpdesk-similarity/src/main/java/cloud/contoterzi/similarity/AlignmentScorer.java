@@ -0,0 +1,112 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.similarity.SimilarityAlgorithm;
+import cloud.contoterzi.helpdesk.core.similarity.Tokenizer;
+import cloud.contoterzi.helpdesk.core.similarity.WordTokenizer;
+
+import java.util.Arrays;
+
+/**
+ * Word-order-aware similarity: the word-level LCS ratio {@code 2 * M / (|a| + |b|)}, where {@code M} is the
+ * length of the longest common subsequence of the words of both texts.
+ * "move another worker to a job" and "move a job to another worker" share all their words, so their cosine is 1,
+ * but only three of them in order. Quadratic in the number of words: meant to re-rank a few candidates.
+ */
+final class AlignmentScorer implements SimilarityAlgorithm {
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private final Tokenizer tokenizer;
+
+    AlignmentScorer() {
+        this(WordTokenizer.INSTANCE);
+    }
+
+    AlignmentScorer(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    @Override
+    public Tokenizer tokenizer() {
+        return tokenizer;
+    }
+
+    @Override
+    public double compute(String a, String b) {
+        if (a == null || b == null || a.trim().isEmpty() || b.trim().isEmpty()) {
+            return 0.0;
+        }
+
+        Workspace workspace = WORKSPACE.get();
+        workspace.dictionary.clear();
+        WordSequence first = workspace.first;
+        WordSequence second = workspace.second;
+        first.read(a, tokenizer, workspace.dictionary);
+        second.read(b, tokenizer, workspace.dictionary);
+        if (first.count == 0 || second.count == 0)
+            return 0.0;
+
+        return 2.0 * workspace.commonSubsequence(first, second) / (first.count + second.count);
+    }
+
+    /**
+     * Per-thread buffers: the dictionary shared by both texts, their word ids and the rows of the dynamic program.
+     */
+    private static final class Workspace {
+        private final TermDictionary dictionary = new TermDictionary();
+        private final WordSequence first = new WordSequence();
+        private final WordSequence second = new WordSequence();
+        private int[] previous = new int[16];
+        private int[] current = new int[16];
+
+        /**
+         * Length of the longest common subsequence, keeping only two rows of the table.
+         */
+        int commonSubsequence(WordSequence a, WordSequence b) {
+            if (previous.length <= b.count) {
+                previous = new int[(b.count + 1) * 2];
+                current = new int[previous.length];
+            }
+            Arrays.fill(previous, 0, b.count + 1, 0);
+            current[0] = 0;
+            for (int i = 0; i < a.count; i++) {
+                int word = a.ids[i];
+                for (int j = 0; j < b.count; j++) {
+                    current[j + 1] = word == b.ids[j]
+                            ? previous[j] + 1
+                            : Math.max(previous[j + 1], current[j]);
+                }
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return previous[b.count];
+        }
+    }
+
+    /**
+     * The word ids of a text, in order.
+     */
+    private static final class WordSequence implements Tokenizer.TokenSink {
+        private TermDictionary dictionary;
+        private int[] ids = new int[16];
+        private int count;
+
+        void read(String text, Tokenizer tokenizer, TermDictionary dictionary) {
+            this.dictionary = dictionary;
+            this.count = 0;
+            try {
+                tokenizer.tokenize(text, this);
+            } finally {
+                this.dictionary = null;
+            }
+        }
+
+        @Override
+        public void accept(char[] buffer, int length) {
+            if (count == ids.length)
+                ids = Arrays.copyOf(ids, count * 2);
+            ids[count++] = dictionary.intern(buffer, length);
+        }
+    }
+}
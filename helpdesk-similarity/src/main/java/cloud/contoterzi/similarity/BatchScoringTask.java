@@ -0,0 +1,186 @@
+package cloud.contoterzi.similarity;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the best match of many questions at once in the base of a {@link SegmentedIndex}, skipping its
+ * tombstoned entries. The questions are scored in blocks of {@link #BLOCK_SIZE}: the words of a block are
+ * merged, so that the posting list of a word shared by several questions (e.g. "how", "do") is walked once
+ * per block instead of once per question. The knowledge base is walked in tiles of {@link #TILE_SIZE}
+ * positions, so that the partial dot products of a block stay small enough for the CPU caches.
+ * Ranges of more than one block are split in two halves run as fork-join subtasks.
+ */
+final class BatchScoringTask extends RecursiveAction {
+
+    static final int BLOCK_SIZE = 64;
+    static final int TILE_SIZE = 4_096;
+
+    private static final ThreadLocal<BlockBuffers> BUFFERS = ThreadLocal.withInitial(BlockBuffers::new);
+
+    private final SegmentedIndex segments;
+    private final SparseVector[] questions;
+    private final int from;
+    private final int to;
+    private final int[] bestPositions;
+    private final double[] bestScores;
+
+    /**
+     * @param segments the index whose base is scored
+     * @param questions the question vectors, built with the dictionary of the base
+     * @param from the first question of the range, inclusive
+     * @param to the last question of the range, exclusive
+     * @param bestPositions receives the position of the best match of every question, -1 if there is none
+     * @param bestScores receives the similarity of the best match of every question
+     */
+    BatchScoringTask(SegmentedIndex segments, SparseVector[] questions, int from, int to,
+                     int[] bestPositions, double[] bestScores) {
+        this.segments = segments;
+        this.questions = questions;
+        this.from = from;
+        this.to = to;
+        this.bestPositions = bestPositions;
+        this.bestScores = bestScores;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= BLOCK_SIZE) {
+            scoreBlock(segments, questions, from, to, bestPositions, bestScores);
+            return;
+        }
+
+        int middle = from + ((to - from) / BLOCK_SIZE / 2) * BLOCK_SIZE;
+        if (middle == from)
+            middle = from + BLOCK_SIZE;
+        invokeAll(new BatchScoringTask(segments, questions, from, middle, bestPositions, bestScores),
+                new BatchScoringTask(segments, questions, middle, to, bestPositions, bestScores));
+    }
+
+    /**
+     * Scores sequentially the questions of a range, in blocks.
+     * @see #BatchScoringTask(SegmentedIndex, SparseVector[], int, int, int[], double[])
+     */
+    static void score(SegmentedIndex segments, SparseVector[] questions, int from, int to,
+                      int[] bestPositions, double[] bestScores) {
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            scoreBlock(segments, questions, start, Math.min(to, start + BLOCK_SIZE), bestPositions, bestScores);
+        }
+    }
+
+    private static void scoreBlock(SegmentedIndex segments, SparseVector[] questions, int from, int to,
+                                   int[] bestPositions, double[] bestScores) {
+        final KnowledgeIndex index = segments.base();
+        final int blockSize = to - from;
+        Arrays.fill(bestPositions, from, to, -1);
+        Arrays.fill(bestScores, from, to, 0.0);
+
+        // The (word, question) pairs of the block sorted by word: each word is a group of consecutive pairs
+        int pairCount = 0;
+        for (int q = from; q < to; q++) {
+            pairCount += questions[q].size();
+        }
+        long[] pairs = new long[pairCount];
+        int[] pairQuestions = new int[pairCount];
+        double[] pairWeights = new double[pairCount];
+        pairCount = 0;
+        for (int q = from; q < to; q++) {
+            SparseVector question = questions[q];
+            for (int k = 0; k < question.size() && question.id(k) < index.termCount(); k++) {
+                pairQuestions[pairCount] = q - from;
+                pairWeights[pairCount] = question.weight(k);
+                pairs[pairCount] = ((long) question.id(k) << 32) | pairCount;
+                pairCount++;
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        BlockBuffers buffers = BUFFERS.get();
+        double[] dotProducts = buffers.dotProducts(TILE_SIZE * blockSize);
+        int[] touched = buffers.touched(TILE_SIZE);
+        boolean[] isTouched = buffers.isTouched(TILE_SIZE);
+
+        for (int tileFrom = 0; tileFrom < index.size(); tileFrom += TILE_SIZE) {
+            int tileTo = Math.min(index.size(), tileFrom + TILE_SIZE);
+            int touchedCount = 0;
+
+            for (int group = 0; group < pairCount; ) {
+                int termId = (int) (pairs[group] >>> 32);
+                int groupEnd = group + 1;
+                while (groupEnd < pairCount && (int) (pairs[groupEnd] >>> 32) == termId) {
+                    groupEnd++;
+                }
+
+                PostingList posting = index.posting(termId);
+                for (int i = tileFrom == 0 ? 0 : posting.indexOf(tileFrom); i < posting.size(); i++) {
+                    int position = posting.position(i);
+                    if (position >= tileTo)
+                        break;
+                    int row = position - tileFrom;
+                    if (!isTouched[row]) {
+                        isTouched[row] = true;
+                        touched[touchedCount++] = row;
+                    }
+                    double entryWeight = posting.weight(i);
+                    int offset = row * blockSize;
+                    for (int p = group; p < groupEnd; p++) {
+                        int pair = (int) pairs[p];
+                        dotProducts[offset + pairQuestions[pair]] += pairWeights[pair] * entryWeight;
+                    }
+                }
+                group = groupEnd;
+            }
+
+            for (int t = 0; t < touchedCount; t++) {
+                int row = touched[t];
+                int position = tileFrom + row;
+                int offset = row * blockSize;
+                if (!segments.isRemoved(position)) {
+                    double entryNorm = index.norm(position);
+                    for (int q = 0; q < blockSize; q++) {
+                        double dotProduct = dotProducts[offset + q];
+                        if (dotProduct == 0.0)
+                            continue;
+                        double similarity = ScoringTask.cosine(dotProduct, questions[from + q].norm(), entryNorm);
+                        int best = bestPositions[from + q];
+                        // Ties go to the first entry of the knowledge base, as in the single-question search
+                        if (similarity > bestScores[from + q]
+                                || (similarity == bestScores[from + q] && best >= 0 && position < best)) {
+                            bestScores[from + q] = similarity;
+                            bestPositions[from + q] = position;
+                        }
+                    }
+                }
+                Arrays.fill(dotProducts, offset, offset + blockSize, 0.0);
+                isTouched[row] = false;
+            }
+        }
+    }
+
+    /**
+     * Per-thread buffers of a block, kept across the blocks scored by the thread.
+     */
+    private static final class BlockBuffers {
+        private double[] dotProducts = new double[0];
+        private int[] touched = new int[0];
+        private boolean[] isTouched = new boolean[0];
+
+        double[] dotProducts(int size) {
+            if (dotProducts.length < size)
+                dotProducts = new double[size];
+            return dotProducts;
+        }
+
+        int[] touched(int size) {
+            if (touched.length < size)
+                touched = new int[size];
+            return touched;
+        }
+
+        boolean[] isTouched(int size) {
+            if (isTouched.length < size)
+                isTouched = new boolean[size];
+            return isTouched;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+
+/**
+ * Service provider implementation ranking the knowledge base with BM25 term weights.
+ * The words are weighted by their inverse document frequency over the knowledge base, so that
+ * the words shared by most of the questions ("how", "do", "i") barely count, and the score is the
+ * cosine similarity of the weighted vectors, between 0 and 1 like the one of {@link CosineSequenceMatcherService}.
+ * The weights are computed once, when the knowledge base is indexed.
+ */
+public class Bm25SimilarityService extends CosineSequenceMatcherService {
+
+    static final double DEFAULT_K1 = 1.2;
+    static final double DEFAULT_B = 0.75;
+
+    private volatile double k1 = DEFAULT_K1;
+    private volatile double b = DEFAULT_B;
+
+    @Override
+    public String id() {
+        return "bm25";
+    }
+
+    @Override
+    public void init(YamlConfig appConfig) {
+        this.k1 = appConfig.getDouble("similarity.bm25.k1", DEFAULT_K1);
+        this.b = appConfig.getDouble("similarity.bm25.b", DEFAULT_B);
+        super.init(appConfig);
+    }
+
+    @Override
+    TermWeighting newWeighting() {
+        return new Bm25Weighting(k1, b);
+    }
+}
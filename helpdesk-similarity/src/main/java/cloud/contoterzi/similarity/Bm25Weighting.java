@@ -0,0 +1,70 @@
+package cloud.contoterzi.similarity;
+
+/**
+ * Okapi BM25 term weighting. The weight of a word in an indexed question is
+ * {@code idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / averageLength))} and in the incoming
+ * question {@code idf * tf * (k1 + 1) / (tf + k1)}, with
+ * {@code idf = ln(1 + (N - df + 0.5) / (df + 0.5))}: the words found in most of the questions,
+ * like "how" or "do", weigh much less than the rare ones.
+ * Words unknown to the knowledge base get the highest idf, so they lower the similarity of the question.
+ */
+final class Bm25Weighting implements TermWeighting {
+
+    private final double k1;
+    private final double b;
+    private float[] idf = new float[0];
+    private float unknownIdf;
+    private double averageLength;
+
+    Bm25Weighting(double k1, double b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    @Override
+    public void fit(int[] documentFrequencies, int documentCount, double averageLength) {
+        this.idf = new float[documentFrequencies.length];
+        for (int termId = 0; termId < documentFrequencies.length; termId++) {
+            idf[termId] = idf(documentFrequencies[termId], documentCount);
+        }
+        this.unknownIdf = idf(0, documentCount);
+        this.averageLength = averageLength;
+    }
+
+    @Override
+    public float documentWeight(int termId, float frequency, int length) {
+        double lengthRatio = averageLength > 0.0 ? length / averageLength : 1.0;
+        return (float) (idf[termId] * frequency * (k1 + 1) / (frequency + k1 * (1 - b + b * lengthRatio)));
+    }
+
+    @Override
+    public SparseVector queryVector(SparseVector frequencies) {
+        if (frequencies.isEmpty())
+            return frequencies;
+
+        int[] ids = new int[frequencies.size()];
+        float[] weights = new float[frequencies.size()];
+        for (int i = 0; i < frequencies.size(); i++) {
+            int termId = frequencies.id(i);
+            float frequency = frequencies.weight(i);
+            float termIdf = termId < idf.length ? idf[termId] : unknownIdf;
+            ids[i] = termId;
+            weights[i] = (float) (termIdf * frequency * (k1 + 1) / (frequency + k1));
+        }
+        return new SparseVector(ids, weights);
+    }
+
+    @Override
+    public boolean isCorpusDependent() {
+        return true;
+    }
+
+    @Override
+    public String describe() {
+        return "BM25(k1=" + k1 + ", b=" + b + ")";
+    }
+
+    private static float idf(int documentFrequency, int documentCount) {
+        return (float) Math.log(1.0 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+}
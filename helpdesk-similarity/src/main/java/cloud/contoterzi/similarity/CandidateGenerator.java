@@ -0,0 +1,15 @@
+package cloud.contoterzi.similarity;
+
+/**
+ * Source of the knowledge base entries worth scoring for a question: a similarity provider can score
+ * only these candidates instead of the whole knowledge base.
+ */
+interface CandidateGenerator {
+
+    /**
+     * Finds the entries likely to be similar to a question.
+     * @param question the question
+     * @return the positions of the candidates in ascending order, empty if there are none
+     */
+    int[] candidates(String question);
+}
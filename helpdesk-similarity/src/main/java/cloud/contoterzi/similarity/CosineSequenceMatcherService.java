@@ -3,22 +3,76 @@ package cloud.contoterzi.similarity;
 import cloud.contoterzi.helpdesk.core.config.YamlConfig;
 import cloud.contoterzi.helpdesk.core.model.IKnowledge;
 import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
-import cloud.contoterzi.helpdesk.core.similarity.SimilarityAlgorithm;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeDelta;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.similarity.RegexTokenizer;
+import cloud.contoterzi.helpdesk.core.similarity.WordTokenizer;
 import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
+import cloud.contoterzi.helpdesk.core.util.TextNormalizer;
+import cloud.contoterzi.similarity.QueryCache.CachedQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Comparator;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Service provider implementation for cosine similarity using SequenceMatcherJava.
+ * The questions of the knowledge base are tokenized once into a {@link KnowledgeIndex},
+ * which is rebuilt only when a different knowledge base is passed; a request scores only
+ * the entries sharing at least one word with the question.
+ * Knowledge bases of at least {@code similarity.parallelThreshold} entries (default 50000, 0 disables it)
+ * are split in chunks scored in parallel on the common fork-join pool.
+ * The best match is searched with MaxScore pruning: exact by default, or also dropping the entries
+ * which cannot reach the threshold with {@code similarity.pruning: threshold}, in which case the
+ * similarity reported below the threshold may be lower than the best one.
+ * The vectors and best matches of the last {@code similarity.cache.size} questions (default 1024, 0 disables it)
+ * are cached by normalized question, until the knowledge base changes. The best entries asked by
+ * {@link #scoredTopK(String, List, int)}, the few-shot examples of the LLM prompt, are searched on demand with the
+ * cached vector of the question and cached too, so that the questions answered from the knowledge base only pay
+ * for the pruned best-match search.
+ * With {@code similarity.lsh.bands} above 0, a {@link MinHashLsh} index of {@code similarity.lsh.rows} rows per
+ * band (default 4) narrows the scoring to the near-duplicates of the question sharing a bucket with it;
+ * the whole index is scored when there are fewer candidates than requested entries. The candidates are
+ * approximate: the best match scores the whole index when none of them reaches the threshold, so that the
+ * questions go to the knowledge base or to the LLM as without LSH, but a question above the threshold may be
+ * matched to a candidate while a non-colliding entry scores higher. The few-shot entries are approximate too.
+ * With {@code similarity.snapshot.path}, the index is saved to an {@link IndexSnapshot} file keyed by the content
+ * of the knowledge base, and restored from it instead of tokenizing the questions again while the knowledge base
+ * is unchanged.
+ * A {@link KnowledgeDelta} is applied without re-indexing the unchanged entries: the new and updated entries
+ * are indexed in a small tail segment and the replaced ones tombstoned ({@link SegmentedIndex}); the knowledge
+ * base is indexed again once the changes exceed a tenth of it. The BM25 weights depend on the whole
+ * knowledge base, so the {@code bm25} provider re-indexes it on every delta.
  */
 public class CosineSequenceMatcherService implements SimilarityService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CosineSequenceMatcherService.class.getName());
+
+    static final int DEFAULT_PARALLEL_THRESHOLD = 50_000;
+    static final int DEFAULT_CACHE_SIZE = 1_024;
+    static final int DEFAULT_LSH_ROWS = 4;
+    private static final int MIN_CHUNK_SIZE = 4_096;
+    private static final long LSH_SEED = 42L;
+    private static final double MERGE_RATIO = 0.1;
+    private static final int MIN_MERGE_CHANGES = 256;
+
+    private volatile SequenceMatcherJava matcher;
+    private volatile SegmentedIndex index;
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private volatile boolean thresholdPruning;
+    private volatile QueryCache queryCache = new QueryCache(DEFAULT_CACHE_SIZE);
+    private volatile int lshBands;
+    private volatile int lshRows = DEFAULT_LSH_ROWS;
+    private volatile Path snapshotPath;
 
-    private SimilarityAlgorithm algorithm;
-    
     public CosineSequenceMatcherService() {
-        this.algorithm = new SequenceMatcherJava();
+        this.matcher = new SequenceMatcherJava();
     }
 
     @Override
@@ -28,7 +82,49 @@ public class CosineSequenceMatcherService implements SimilarityService {
 
     @Override
     public void init(YamlConfig appConfig) {
-        // No special initialization needed for cosine similarity
+        final String tokenizer = appConfig.getString("similarity.tokenizer", "word");
+        this.matcher = new SequenceMatcherJava("regex".equalsIgnoreCase(tokenizer)
+                ? RegexTokenizer.INSTANCE
+                : WordTokenizer.INSTANCE);
+        this.parallelThreshold = appConfig.getInt("similarity.parallelThreshold", DEFAULT_PARALLEL_THRESHOLD);
+        this.thresholdPruning = "threshold".equalsIgnoreCase(appConfig.getString("similarity.pruning", "exact"));
+        this.queryCache = new QueryCache(appConfig.getInt("similarity.cache.size", DEFAULT_CACHE_SIZE));
+        this.lshBands = appConfig.getInt("similarity.lsh.bands", 0);
+        this.lshRows = appConfig.getInt("similarity.lsh.rows", DEFAULT_LSH_ROWS);
+        if (lshBands > 0 && lshRows <= 0)
+            throw new IllegalArgumentException("similarity.lsh.rows must be positive: " + lshRows);
+        final String snapshot = appConfig.getString("similarity.snapshot.path", "");
+        this.snapshotPath = snapshot == null || snapshot.isBlank() ? null : Path.of(snapshot);
+        this.index = null;
+    }
+
+    @Override
+    public void index(List<IKnowledge> kb) {
+        if (kb != null)
+            indexFor(kb);
+    }
+
+    @Override
+    public boolean applyDelta(List<IKnowledge> updatedKb, KnowledgeDelta delta) {
+        if (updatedKb == null)
+            return false;
+
+        synchronized (this) {
+            final SegmentedIndex current = index;
+            if (current != null && !newWeighting().isCorpusDependent()) {
+                // An upsert may add a tail entry and a tombstone
+                final int changes = current.pendingChanges()
+                        + 2 * delta.getUpserts().size() + delta.getRemovedIds().size();
+                if (changes <= Math.max(MIN_MERGE_CHANGES, current.base().size() * MERGE_RATIO)) {
+                    index = current.withDelta(updatedKb, delta, matcher, newWeighting());
+                    queryCache.clear();
+                    return true;
+                }
+            }
+            // The requests which read the previous knowledge base keep being served by the new index
+            reindex(updatedKb, current != null ? current.generations() : List.of());
+            return false;
+        }
     }
 
     @Override
@@ -37,52 +133,367 @@ public class CosineSequenceMatcherService implements SimilarityService {
             return new KnowledgeBestMatch(true, 0.0, null);
         }
 
-        IKnowledge bestMatch = null;
-        double bestSimilarity = 0.0;
-
-        for (IKnowledge entry : kb) {
-            double similarity = algorithm.compute(question, entry.getQuestion());
-            if (similarity > bestSimilarity) {
-                bestSimilarity = similarity;
-                bestMatch = entry;
-            }
+        final SegmentedIndex kbIndex = indexFor(kb);
+        final double floor = thresholdPruning ? threshold : 0.0;
+        // With LSH, whether the candidates are enough depends on the threshold too
+        final double searchedWith = kbIndex.lsh() != null ? threshold : floor;
+        final String key = TextNormalizer.normalize(question);
+        CachedQuery cached = cachedQuery(key, kbIndex);
+        if (!cached.hasBestMatch(searchedWith)) {
+            final TopKHeap best = search(kbIndex, key, cached.vector(), 1, floor, threshold);
+            cached = best.size() > 0
+                    ? cached.withBestMatch(best.position(0), best.score(0), searchedWith)
+                    : cached.withBestMatch(CachedQuery.NO_MATCH, 0.0, searchedWith);
+            queryCache.put(key, cached);
         }
 
+        final IKnowledge bestMatch = cached.bestPosition() >= 0 ? kbIndex.entry(cached.bestPosition()) : null;
+        final double bestSimilarity = cached.bestScore();
+
         boolean shouldInvokeLlm = bestSimilarity < threshold;
         IKnowledge resultMatch = bestSimilarity >= threshold ? bestMatch : null;
 
         return new KnowledgeBestMatch(shouldInvokeLlm, bestSimilarity, resultMatch);
     }
 
+    /**
+     * Finds the best matches of a batch of questions in a single pass over the index per block of questions
+     * ({@link BatchScoringTask}), the blocks being scored in parallel on the common fork-join pool unless
+     * {@code similarity.parallelThreshold} is 0. The questions are vectorized up front and the duplicates,
+     * once normalized, scored once; the batch neither reads nor fills the question cache.
+     * The search is always exact: neither the LSH candidates nor the threshold pruning apply. With LSH enabled,
+     * the questions go to the knowledge base or to the LLM as with {@link #findBestMatch(String, List, double)},
+     * but a question above the threshold may be matched to a better entry than the LSH candidate it returns.
+     */
+    @Override
+    public List<KnowledgeBestMatch> findBestMatches(List<String> questions, List<IKnowledge> kb, double threshold) {
+        final List<KnowledgeBestMatch> result = new ArrayList<>(questions.size());
+        if (kb == null || kb.isEmpty()) {
+            for (int i = 0; i < questions.size(); i++) {
+                result.add(new KnowledgeBestMatch(true, 0.0, null));
+            }
+            return result;
+        }
+
+        final SegmentedIndex kbIndex = indexFor(kb);
+        final Map<String, Integer> slots = new HashMap<>();
+        final int[] questionSlots = new int[questions.size()];
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < questions.size(); i++) {
+            final String question = questions.get(i);
+            if (question == null || question.trim().isEmpty()) {
+                questionSlots[i] = -1;
+                continue;
+            }
+            final String key = TextNormalizer.normalize(question);
+            Integer slot = slots.get(key);
+            if (slot == null) {
+                slot = keys.size();
+                slots.put(key, slot);
+                keys.add(key);
+            }
+            questionSlots[i] = slot;
+        }
+
+        final SparseVector[] vectors = new SparseVector[keys.size()];
+        for (int slot = 0; slot < vectors.length; slot++) {
+            vectors[slot] = kbIndex.base().queryVector(keys.get(slot), matcher);
+        }
+        final int[] bestPositions = new int[vectors.length];
+        final double[] bestScores = new double[vectors.length];
+        if (parallelThreshold <= 0 || vectors.length <= BatchScoringTask.BLOCK_SIZE
+                || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            BatchScoringTask.score(kbIndex, vectors, 0, vectors.length, bestPositions, bestScores);
+        } else {
+            ForkJoinPool.commonPool().invoke(
+                    new BatchScoringTask(kbIndex, vectors, 0, vectors.length, bestPositions, bestScores));
+        }
+
+        final KnowledgeIndex tail = kbIndex.tail();
+        if (tail != null) {
+            final int tailOffset = kbIndex.base().size();
+            for (int slot = 0; slot < vectors.length; slot++) {
+                final TopKHeap tailBest = ScoringTask.score(tail, tail.queryVector(keys.get(slot), matcher), 1,
+                        0, tail.size(), 0.0);
+                if (tailBest.size() > 0 && tailBest.score(0) > bestScores[slot]) {
+                    bestPositions[slot] = tailOffset + tailBest.position(0);
+                    bestScores[slot] = tailBest.score(0);
+                }
+            }
+        }
+
+        for (int slot : questionSlots) {
+            final double bestSimilarity = slot >= 0 ? bestScores[slot] : 0.0;
+            final IKnowledge bestMatch = slot >= 0 && bestPositions[slot] >= 0 ? kbIndex.entry(bestPositions[slot]) : null;
+            result.add(new KnowledgeBestMatch(bestSimilarity < threshold, bestSimilarity,
+                    bestSimilarity >= threshold ? bestMatch : null));
+        }
+        return result;
+    }
+
     @Override
     public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+        final List<ScoredKnowledge> scored = scoredTopK(question, kb, topK);
+        final List<IKnowledge> result = new ArrayList<>(scored.size());
+        for (ScoredKnowledge entry : scored) {
+            result.add(entry.getEntry());
+        }
+        return result;
+    }
+
+    @Override
+    public List<ScoredKnowledge> scoredTopK(String question, List<IKnowledge> kb, int topK) {
         if (question == null || question.trim().isEmpty() || kb == null || kb.isEmpty() || topK <= 0) {
             return List.of();
         }
 
-        return kb.stream()
-                .map(entry -> new ScoredEntry(entry, algorithm.compute(question, entry.getQuestion())))
-                .sorted(Comparator.comparingDouble(ScoredEntry::getScore).reversed())
-                .limit(topK)
-                .map(ScoredEntry::getEntry)
-                .collect(Collectors.toList());
+        final SegmentedIndex kbIndex = indexFor(kb);
+        final String key = TextNormalizer.normalize(question);
+        CachedQuery cached = cachedQuery(key, kbIndex);
+        if (!cached.hasTopK(topK)) {
+            cached = withTopK(cached, kbIndex, key, topK);
+            queryCache.put(key, cached);
+        }
+        final int count = Math.min(topK, cached.topCount());
+
+        final List<ScoredKnowledge> result = new ArrayList<>(Math.min(topK, kbIndex.size()));
+        for (int i = 0; i < count; i++) {
+            result.add(new ScoredKnowledge(kbIndex.entry(cached.topPosition(i)), cached.topScore(i)));
+        }
+        if (result.size() < topK) {
+            // All the candidates fit: the entries without common words score zero
+            // and fill the remaining slots in knowledge base order
+            final boolean[] selected = new boolean[kbIndex.positionCount()];
+            for (int i = 0; i < count; i++) {
+                selected[cached.topPosition(i)] = true;
+            }
+            for (int position = 0; position < kbIndex.positionCount() && result.size() < topK; position++) {
+                if (!selected[position] && !kbIndex.isRemoved(position))
+                    result.add(new ScoredKnowledge(kbIndex.entry(position), 0.0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of questions whose vector was found in the cache.
+     * @return the cache hits since the service was created
+     */
+    public long getCacheHits() {
+        return queryCache.hits();
+    }
+
+    /**
+     * Number of questions whose vector had to be computed.
+     * @return the cache misses since the service was created
+     */
+    public long getCacheMisses() {
+        return queryCache.misses();
+    }
+
+    /**
+     * Sets the size from which the knowledge base is scored in parallel.
+     * @param parallelThreshold the minimum number of entries, 0 to always score sequentially
+     */
+    void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Narrows the scoring of the next indexed knowledge bases to the entries sharing an LSH bucket with the question.
+     * @param bands the number of bands of the MinHash signatures, 0 to score the whole index
+     * @param rows the number of values of a band
+     */
+    void setLsh(int bands, int rows) {
+        this.lshBands = bands;
+        this.lshRows = rows;
+        this.index = null;
+    }
+
+    /**
+     * Sets the file the indexes are saved to and restored from.
+     * @param snapshotPath the snapshot file, null to always tokenize the knowledge base
+     */
+    void setSnapshotPath(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+        this.index = null;
+    }
+
+    /**
+     * Sets whether the best match search drops the entries which cannot reach the threshold.
+     * @param thresholdPruning true for {@code similarity.pruning: threshold}, false for the exact search
+     */
+    void setThresholdPruning(boolean thresholdPruning) {
+        this.thresholdPruning = thresholdPruning;
+    }
+
+    /**
+     * Creates the weighting of the words of a new index; every occurrence of a word counts the same.
+     * @return the term weighting
+     */
+    TermWeighting newWeighting() {
+        return new TermWeighting.TermFrequency();
+    }
+
+    /**
+     * Returns the cached question, vectorizing and caching it if absent.
+     */
+    private CachedQuery cachedQuery(String key, SegmentedIndex kbIndex) {
+        CachedQuery cached = queryCache.get(key, kbIndex);
+        if (cached == null) {
+            cached = new CachedQuery(kbIndex, kbIndex.base().queryVector(key, matcher));
+            queryCache.put(key, cached);
+        }
+        return cached;
     }
 
-    private static class ScoredEntry {
-        private final IKnowledge entry;
-        private final double score;
+    /**
+     * Returns a copy of the cached question holding its best {@code k} entries, searched exhaustively.
+     */
+    private CachedQuery withTopK(CachedQuery cached, SegmentedIndex kbIndex, String key, int k) {
+        final TopKHeap best = search(kbIndex, key, cached.vector(), k, 0.0, 0.0);
+        final int[] positions = new int[best.size()];
+        final double[] scores = new double[best.size()];
+        best.drainSorted(positions, scores);
+        return cached.withTopK(k, positions, scores);
+    }
+
+    /**
+     * Searches the base and the tail of the index, the tombstoned base entries being skipped while scoring.
+     * @param questionVector the vector of the question built with the dictionary of the base
+     * @param accept the similarity the best LSH candidate must reach to spare the exact search, see
+     *               {@link #searchBase(SegmentedIndex, String, SparseVector, int, double, double)}
+     */
+    private TopKHeap search(SegmentedIndex kbIndex, String key, SparseVector questionVector, int k, double floor,
+                            double accept) {
+        final KnowledgeIndex tail = kbIndex.tail();
+        if (tail == null)
+            return searchBase(kbIndex, key, questionVector, k, floor, accept);
+
+        final TopKHeap baseBest = searchBase(kbIndex, key, questionVector, k, floor, accept);
+        final TopKHeap tailBest = ScoringTask.score(tail, tail.queryVector(key, matcher), k, 0, tail.size(), floor);
 
-        public ScoredEntry(IKnowledge entry, double score) {
-            this.entry = entry;
-            this.score = score;
+        final TopKHeap best = new TopKHeap(Math.min(k, baseBest.size() + tailBest.size()));
+        best.offerAll(baseBest);
+        final int tailOffset = kbIndex.base().size();
+        for (int i = 0; i < tailBest.size(); i++) {
+            best.offer(tailOffset + tailBest.position(i), tailBest.score(i));
         }
+        return best;
+    }
 
-        public IKnowledge getEntry() {
-            return entry;
+    /**
+     * Scores the candidates of the LSH buckets of the question when there are enough of them,
+     * the whole base index otherwise. The candidates are approximate: an entry outside the buckets of the question
+     * may score higher, so the best match (k = 1) keeps them only if the best one reaches {@code accept},
+     * the threshold, and scores the whole index otherwise.
+     * @param accept the similarity the best candidate must reach, 0 to keep the candidates as soon as there are k
+     */
+    private TopKHeap searchBase(SegmentedIndex segments, String key, SparseVector questionVector, int k, double floor,
+                                double accept) {
+        final KnowledgeIndex kbIndex = segments.base();
+        final MinHashLsh buckets = segments.lsh();
+        if (buckets != null) {
+            final int[] candidates = buckets.candidates(key);
+            if (candidates.length >= k) {
+                final TopKHeap best = new TopKHeap(k);
+                int liveCandidates = 0;
+                for (int position : candidates) {
+                    if (segments.isRemoved(position))
+                        continue;
+                    liveCandidates++;
+                    double similarity = kbIndex.cosine(questionVector, position);
+                    if (similarity > 0.0)
+                        best.offer(position, similarity);
+                }
+                if (liveCandidates >= k && (accept <= 0.0 || best.size() > 0 && best.score(0) >= accept))
+                    return best;
+            }
         }
+        return score(kbIndex, questionVector, k, floor, segments.tombstones());
+    }
+
+    /**
+     * Scores the entries sharing at least one word with the question, in parallel chunks
+     * on the common fork-join pool when the knowledge base is large enough.
+     */
+    private TopKHeap score(KnowledgeIndex kbIndex, SparseVector questionVector, int k, double floor, boolean[] removed) {
+        final int size = kbIndex.size();
+        final int threshold = parallelThreshold;
+        final int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (threshold <= 0 || size < threshold || parallelism < 2)
+            return ScoringTask.score(kbIndex, questionVector, k, 0, size, floor, removed);
+
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, size / (parallelism * 4));
+        return ForkJoinPool.commonPool().invoke(
+                new ScoringTask(kbIndex, questionVector, k, 0, size, chunkSize, floor, removed));
+    }
+
+    /**
+     * Restores the index of a knowledge base from its snapshot or, if the snapshot is missing or stale,
+     * builds the index and saves its snapshot. A snapshot which cannot be read or written is only logged.
+     */
+    private KnowledgeIndex loadOrBuild(List<IKnowledge> kb) {
+        final Path path = snapshotPath;
+        if (path == null)
+            return KnowledgeIndex.build(kb, matcher, newWeighting());
 
-        public double getScore() {
-            return score;
+        final TermWeighting weighting = newWeighting();
+        final byte[] key = IndexSnapshot.key(kb,
+                id() + ':' + matcher.tokenizer().getClass().getName() + ':' + weighting.describe());
+        try {
+            final KnowledgeIndex restored = IndexSnapshot.read(path, key, kb, weighting);
+            if (restored != null) {
+                LOGGER.info("Knowledge base index restored from {}", path);
+                return restored;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot read the index snapshot {}: {}", path, e.getMessage());
+        }
+
+        final KnowledgeIndex built = KnowledgeIndex.build(kb, matcher, newWeighting());
+        try {
+            IndexSnapshot.write(path, key, built);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot write the index snapshot {}: {}", path, e.getMessage());
         }
+        return built;
+    }
+
+    /**
+     * Returns the index of the given knowledge base, building it if the current index
+     * has been built from a different knowledge base.
+     */
+    private SegmentedIndex indexFor(List<IKnowledge> kb) {
+        SegmentedIndex current = index;
+        if (current != null && current.serves(kb))
+            return current;
+
+        synchronized (this) {
+            current = index;
+            if (current == null || !current.serves(kb))
+                current = reindex(kb, List.of());
+            return current;
+        }
+    }
+
+    /**
+     * Indexes a whole knowledge base and makes it the current index; the caller holds the lock of the service.
+     * @param kb the knowledge base
+     * @param previousSources the earlier generations the new index keeps serving
+     * @return the new index
+     */
+    private SegmentedIndex reindex(List<IKnowledge> kb, List<WeakReference<List<IKnowledge>>> previousSources) {
+        long start = System.nanoTime();
+        final KnowledgeIndex base = loadOrBuild(kb);
+        final MinHashLsh buckets = lshBands > 0
+                ? MinHashLsh.build(kb, matcher.tokenizer(), lshBands, lshRows, LSH_SEED)
+                : null;
+        final SegmentedIndex current = SegmentedIndex.of(kb, base, buckets, previousSources);
+        index = current;
+        queryCache.clear();
+        LOGGER.info("Knowledge base indexed: {} entries in {} ms",
+                current.size(), (System.nanoTime() - start) / 1_000_000);
+        return current;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,146 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+
+import java.util.List;
+
+/**
+ * Immutable index of a knowledge base for the hashing provider: the normalized feature-hashed
+ * vector of every question, one row per entry of a {@link DenseMatrix} (optionally with the
+ * {@link HnswGraph} of the rows) or of an off-heap {@link QuantizedMatrix}.
+ */
+final class DenseIndex {
+
+    private final List<IKnowledge> source;
+    private final IKnowledge[] entries;
+    private final FeatureHasher hasher;
+    private final VectorStore vectors;
+    private final HnswGraph graph;
+
+    private DenseIndex(List<IKnowledge> source, IKnowledge[] entries, FeatureHasher hasher, VectorStore vectors,
+                       HnswGraph graph) {
+        this.source = source;
+        this.entries = entries;
+        this.hasher = hasher;
+        this.vectors = vectors;
+        this.graph = graph;
+    }
+
+    /**
+     * Hashes all the questions of the knowledge base.
+     * @param kb the knowledge base to index
+     * @param hasher the hasher projecting the questions
+     * @return the index of the knowledge base
+     */
+    static DenseIndex build(List<IKnowledge> kb, FeatureHasher hasher) {
+        IKnowledge[] entries = kb.toArray(new IKnowledge[0]);
+        DenseMatrix matrix = new DenseMatrix(entries.length, hasher.dimensions());
+        for (int i = 0; i < entries.length; i++) {
+            hasher.vectorize(entries[i].getQuestion(), matrix.data(), i * hasher.dimensions());
+        }
+        return new DenseIndex(kb, entries, hasher, matrix, null);
+    }
+
+    /**
+     * Hashes all the questions of the knowledge base into int8-quantized rows: the float vectors
+     * only exist one at a time, while they are quantized.
+     * @param kb the knowledge base to index
+     * @param hasher the hasher projecting the questions
+     * @return the index of the knowledge base
+     */
+    static DenseIndex buildQuantized(List<IKnowledge> kb, FeatureHasher hasher) {
+        IKnowledge[] entries = kb.toArray(new IKnowledge[0]);
+        QuantizedMatrix matrix = new QuantizedMatrix(entries.length, hasher.dimensions());
+        float[] vector = new float[hasher.dimensions()];
+        for (int i = 0; i < entries.length; i++) {
+            hasher.vectorize(entries[i].getQuestion(), vector, 0);
+            matrix.set(i, vector);
+        }
+        return new DenseIndex(kb, entries, hasher, matrix, null);
+    }
+
+    /**
+     * Returns a copy of this index searched through a graph of its rows.
+     * @param graph the graph built on {@link #matrix()}
+     * @return the index with its graph
+     */
+    DenseIndex withGraph(HnswGraph graph) {
+        return new DenseIndex(source, entries, hasher, vectors, graph);
+    }
+
+    /**
+     * Hashes an incoming question with the hasher which built the index.
+     * @param question the question
+     * @return the normalized vector of the question, null if it has no words
+     */
+    float[] queryVector(String question) {
+        float[] vector = new float[vectors.dimensions()];
+        return hasher.vectorize(question, vector, 0) ? vector : null;
+    }
+
+    /**
+     * Tells whether this index has been built from the given knowledge base instance.
+     * @param kb the knowledge base to check
+     * @return true if the index can serve the knowledge base
+     */
+    boolean isBuiltFrom(List<IKnowledge> kb) {
+        return source == kb;
+    }
+
+    /**
+     * Cosine similarity between a normalized vector and an entry; the small negative values
+     * caused by the signed hashing are reported as 0.
+     * @param vector the normalized vector of the question
+     * @param position the position of the entry
+     * @return the cosine similarity
+     */
+    double similarity(float[] vector, int position) {
+        return Math.max(0f, vectors.dot(vector, position));
+    }
+
+    /**
+     * Exact cosine similarity between a normalized vector and an entry: with quantized rows,
+     * the question of the entry is hashed again to compare the float vectors.
+     * @param vector the normalized vector of the question
+     * @param position the position of the entry
+     * @return the cosine similarity
+     */
+    double exactSimilarity(float[] vector, int position) {
+        if (!vectors.isApproximate())
+            return similarity(vector, position);
+
+        float[] entryVector = new float[vectors.dimensions()];
+        if (!hasher.vectorize(entries[position].getQuestion(), entryVector, 0))
+            return 0.0;
+        return Math.max(0f, DenseMatrix.dot(vector, entryVector, 0, entryVector.length));
+    }
+
+    /**
+     * Tells whether {@link #similarity(float[], int)} is approximate.
+     */
+    boolean isApproximate() {
+        return vectors.isApproximate();
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    /**
+     * The float rows of the index, null if they are quantized.
+     */
+    DenseMatrix matrix() {
+        return vectors instanceof DenseMatrix matrix ? matrix : null;
+    }
+
+    /**
+     * The graph of the rows, null if the index is only scanned.
+     */
+    HnswGraph graph() {
+        return graph;
+    }
+
+    IKnowledge entry(int position) {
+        return entries[position];
+    }
+}
@@ -0,0 +1,81 @@
+package cloud.contoterzi.similarity;
+
+/**
+ * Row-major matrix of fixed-width float vectors stored in a single flat array,
+ * so that a scan walks the memory sequentially.
+ */
+final class DenseMatrix implements VectorStore {
+
+    private final float[] data;
+    private final int rows;
+    private final int dimensions;
+
+    DenseMatrix(int rows, int dimensions) {
+        this.data = new float[Math.multiplyExact(rows, dimensions)];
+        this.rows = rows;
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * The backing array: row {@code r} starts at {@code r * dimensions()}.
+     */
+    float[] data() {
+        return data;
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public float dot(float[] vector, int row) {
+        return dot(vector, data, row * dimensions, dimensions);
+    }
+
+    /**
+     * Dot product between a vector and a slice of an array. The loop has no data-dependent branch and
+     * four independent accumulators, so that the additions do not wait for each other.
+     * @param vector the vector
+     * @param data the array holding the other vector
+     * @param offset the offset of the other vector
+     * @param length the length of the vectors
+     * @return the dot product
+     */
+    static float dot(float[] vector, float[] data, int offset, int length) {
+        return dot(vector, 0, data, offset, length);
+    }
+
+    /**
+     * Dot product between two slices of arrays.
+     * @param a the array holding the first vector
+     * @param offsetA the offset of the first vector
+     * @param b the array holding the second vector
+     * @param offsetB the offset of the second vector
+     * @param length the length of the vectors
+     * @return the dot product
+     */
+    static float dot(float[] a, int offsetA, float[] b, int offsetB, int length) {
+        float sum0 = 0f;
+        float sum1 = 0f;
+        float sum2 = 0f;
+        float sum3 = 0f;
+        int i = 0;
+        int upperBound = length & ~3;
+        for (; i < upperBound; i += 4) {
+            sum0 += a[offsetA + i] * b[offsetB + i];
+            sum1 += a[offsetA + i + 1] * b[offsetB + i + 1];
+            sum2 += a[offsetA + i + 2] * b[offsetB + i + 2];
+            sum3 += a[offsetA + i + 3] * b[offsetB + i + 3];
+        }
+        for (; i < length; i++) {
+            sum0 += a[offsetA + i] * b[offsetB + i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+}
@@ -0,0 +1,116 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.similarity.Tokenizer;
+
+import java.util.Arrays;
+
+/**
+ * Projects the word n-grams of a text into a fixed-width vector with the hashing trick: every n-gram
+ * adds +1 or -1 (the sign being drawn from its hash too, so that collisions cancel out on average)
+ * to the component selected by its hash. The vectors are normalized to unit length, so that the
+ * cosine similarity of two texts is the dot product of their vectors.
+ * The words are hashed straight from the tokenizer buffer, without creating Strings.
+ */
+final class FeatureHasher {
+
+    private static final int BIGRAM_SEED = 0x9E3779B9;
+
+    private final Tokenizer tokenizer;
+    private final int dimensions;
+    private final int maxNgram;
+
+    /**
+     * @param tokenizer the tokenizer splitting the texts in words
+     * @param dimensions the width of the vectors
+     * @param maxNgram 1 to hash the words only, 2 to hash the pairs of consecutive words as well
+     */
+    FeatureHasher(Tokenizer tokenizer, int dimensions, int maxNgram) {
+        this.tokenizer = tokenizer;
+        this.dimensions = dimensions;
+        this.maxNgram = maxNgram;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Writes the normalized vector of a text.
+     * @param text the text, may be null
+     * @param vector receives the vector, {@link #dimensions()} long from {@code offset}
+     * @param offset the offset of the vector in the array
+     * @return false if the text has no words, in which case the vector is left to zero
+     */
+    boolean vectorize(String text, float[] vector, int offset) {
+        Arrays.fill(vector, offset, offset + dimensions, 0f);
+        if (text == null || text.isEmpty())
+            return false;
+
+        final NgramSink sink = new NgramSink(vector, offset);
+        tokenizer.tokenize(text, sink);
+        if (sink.count == 0)
+            return false;
+
+        double norm = 0.0;
+        for (int i = offset; i < offset + dimensions; i++) {
+            norm += (double) vector[i] * vector[i];
+        }
+        if (norm == 0.0)
+            return false;
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = offset; i < offset + dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return true;
+    }
+
+    /**
+     * Receiver of the words of a text, adding their n-grams to its vector.
+     */
+    private final class NgramSink implements Tokenizer.TokenSink {
+        private final float[] vector;
+        private final int offset;
+        private int previousHash;
+        private int count;
+
+        NgramSink(float[] vector, int offset) {
+            this.vector = vector;
+            this.offset = offset;
+        }
+
+        @Override
+        public void accept(char[] buffer, int length) {
+            int hash = hash(buffer, length);
+            add(hash);
+            if (maxNgram > 1 && count > 0)
+                add(mix(previousHash * 31 + hash + BIGRAM_SEED));
+            previousHash = hash;
+            count++;
+        }
+
+        private void add(int hash) {
+            int component = (hash >>> 1) % dimensions;
+            vector[offset + component] += (hash & 1) == 0 ? 1f : -1f;
+        }
+    }
+
+    private static int hash(char[] buffer, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + buffer[i];
+        }
+        return mix(h);
+    }
+
+    /**
+     * Murmur3 finalizer, spreading the bits of String-like hashes over the whole int.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,184 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.similarity.WordTokenizer;
+import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service provider implementation comparing feature-hashed vectors: the words and pairs of consecutive
+ * words of every question are projected into a fixed-width vector ({@code similarity.hashing.dimensions},
+ * default 256; {@code similarity.hashing.ngrams}, default 2) and a request scans all the rows of the
+ * flat matrix holding the knowledge base vectors. The cost of a request only depends on the size of the
+ * knowledge base, not on the words of the question.
+ * With {@code similarity.hashing.storage: int8} the vectors are quantized to one byte per component and kept
+ * off-heap; the scan then preselects the best {@code similarity.hashing.rescore} entries (default 16),
+ * scored again in float.
+ */
+public class HashingSimilarityService implements SimilarityService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashingSimilarityService.class.getName());
+
+    static final int DEFAULT_DIMENSIONS = 256;
+    static final int DEFAULT_NGRAMS = 2;
+    static final int DEFAULT_RESCORE_DEPTH = 16;
+
+    private volatile FeatureHasher hasher = new FeatureHasher(WordTokenizer.INSTANCE, DEFAULT_DIMENSIONS, DEFAULT_NGRAMS);
+    private volatile DenseIndex index;
+    private volatile boolean quantized;
+    private volatile int rescoreDepth = DEFAULT_RESCORE_DEPTH;
+
+    @Override
+    public String id() {
+        return "hashing";
+    }
+
+    @Override
+    public void init(YamlConfig appConfig) {
+        final int dimensions = appConfig.getInt("similarity.hashing.dimensions", DEFAULT_DIMENSIONS);
+        final int ngrams = appConfig.getInt("similarity.hashing.ngrams", DEFAULT_NGRAMS);
+        if (dimensions <= 0)
+            throw new IllegalArgumentException("similarity.hashing.dimensions must be positive: " + dimensions);
+        if (ngrams != 1 && ngrams != 2)
+            throw new IllegalArgumentException("similarity.hashing.ngrams must be 1 or 2: " + ngrams);
+        final String storage = appConfig.getString("similarity.hashing.storage", "float");
+        if (!"float".equalsIgnoreCase(storage) && !"int8".equalsIgnoreCase(storage))
+            throw new IllegalArgumentException("similarity.hashing.storage must be float or int8: " + storage);
+        this.hasher = new FeatureHasher(WordTokenizer.INSTANCE, dimensions, ngrams);
+        this.quantized = "int8".equalsIgnoreCase(storage);
+        this.rescoreDepth = appConfig.getInt("similarity.hashing.rescore", DEFAULT_RESCORE_DEPTH);
+        this.index = null;
+    }
+
+    @Override
+    public void index(List<IKnowledge> kb) {
+        if (kb != null)
+            indexFor(kb);
+    }
+
+    @Override
+    public KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold) {
+        if (question == null || question.trim().isEmpty() || kb == null || kb.isEmpty()) {
+            return new KnowledgeBestMatch(true, 0.0, null);
+        }
+
+        final DenseIndex kbIndex = indexFor(kb);
+        final float[] vector = kbIndex.queryVector(question);
+        IKnowledge bestMatch = null;
+        double bestSimilarity = 0.0;
+        if (vector != null) {
+            final TopKHeap best = search(kbIndex, vector, 1);
+            if (best.size() > 0 && best.score(0) > 0.0) {
+                bestMatch = kbIndex.entry(best.position(0));
+                bestSimilarity = best.score(0);
+            }
+        }
+
+        boolean shouldInvokeLlm = bestSimilarity < threshold;
+        IKnowledge resultMatch = bestSimilarity >= threshold ? bestMatch : null;
+
+        return new KnowledgeBestMatch(shouldInvokeLlm, bestSimilarity, resultMatch);
+    }
+
+    @Override
+    public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+        final List<ScoredKnowledge> scored = scoredTopK(question, kb, topK);
+        final List<IKnowledge> result = new ArrayList<>(scored.size());
+        for (ScoredKnowledge entry : scored) {
+            result.add(entry.getEntry());
+        }
+        return result;
+    }
+
+    @Override
+    public List<ScoredKnowledge> scoredTopK(String question, List<IKnowledge> kb, int topK) {
+        if (question == null || question.trim().isEmpty() || kb == null || kb.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+
+        final DenseIndex kbIndex = indexFor(kb);
+        final float[] vector = kbIndex.queryVector(question);
+        final TopKHeap best = vector != null ? search(kbIndex, vector, topK) : new TopKHeap(0);
+
+        final int[] positions = new int[best.size()];
+        final double[] scores = new double[best.size()];
+        final int count = best.drainSorted(positions, scores);
+        final List<ScoredKnowledge> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new ScoredKnowledge(kbIndex.entry(positions[i]), scores[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Stores the vectors of the next indexed knowledge bases as int8-quantized rows.
+     * @param quantized true for int8 rows, false for float rows
+     */
+    void setQuantized(boolean quantized) {
+        this.quantized = quantized;
+        this.index = null;
+    }
+
+    /**
+     * Hashes the questions of a knowledge base.
+     * @param kb the knowledge base to index
+     * @param hasher the hasher projecting the questions
+     * @return the index of the knowledge base
+     */
+    DenseIndex buildIndex(List<IKnowledge> kb, FeatureHasher hasher) {
+        return quantized ? DenseIndex.buildQuantized(kb, hasher) : DenseIndex.build(kb, hasher);
+    }
+
+    /**
+     * Finds the entries nearest to a question by scanning all the rows of the index;
+     * with quantized rows, the best {@code similarity.hashing.rescore} rows are scored again in float.
+     * @param kbIndex the index of the knowledge base
+     * @param vector the normalized vector of the question
+     * @param k the number of entries to return
+     * @return the best {@code k} entries with their cosine similarity
+     */
+    TopKHeap search(DenseIndex kbIndex, float[] vector, int k) {
+        final int depth = kbIndex.isApproximate() ? Math.max(k, rescoreDepth) : k;
+        final TopKHeap best = new TopKHeap(Math.min(depth, kbIndex.size()));
+        for (int position = 0; position < kbIndex.size(); position++) {
+            best.offer(position, kbIndex.similarity(vector, position));
+        }
+        if (!kbIndex.isApproximate())
+            return best;
+
+        // The quantized scores only preselect the candidates: the best ones are scored again in float
+        final TopKHeap rescored = new TopKHeap(Math.min(k, best.size()));
+        for (int i = 0; i < best.size(); i++) {
+            rescored.offer(best.position(i), kbIndex.exactSimilarity(vector, best.position(i)));
+        }
+        return rescored;
+    }
+
+    /**
+     * Returns the index of the given knowledge base, building it if the current index
+     * has been built from a different knowledge base.
+     */
+    private DenseIndex indexFor(List<IKnowledge> kb) {
+        DenseIndex current = index;
+        if (current != null && current.isBuiltFrom(kb))
+            return current;
+
+        synchronized (this) {
+            current = index;
+            if (current == null || !current.isBuiltFrom(kb)) {
+                long start = System.nanoTime();
+                current = buildIndex(kb, hasher);
+                index = current;
+                LOGGER.info("Knowledge base hashed: {} entries in {} ms",
+                        current.size(), (System.nanoTime() - start) / 1_000_000);
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package cloud.contoterzi.similarity;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Hierarchical Navigable Small World graph over the rows of a {@link DenseMatrix} of unit vectors,
+ * answering approximate nearest-neighbour queries (highest dot product) in logarithmic time.
+ * Every row is a node with a random level; on every level up to its own, a node is linked to at most
+ * {@code m} neighbours ({@code 2 * m} on the bottom level), chosen among the {@code efConstruction}
+ * nearest nodes found while inserting it. A search descends greedily from the single node of the top
+ * level and explores the bottom level keeping the {@code efSearch} best nodes.
+ * The nodes are inserted in parallel on the common fork-join pool: every neighbour list is guarded
+ * by the lock of its node, and the entry point by the lock of the graph.
+ */
+final class HnswGraph {
+
+    private static final int MAX_LEVEL = 16;
+    private static final ThreadLocal<VisitedSet> VISITED = ThreadLocal.withInitial(VisitedSet::new);
+
+    private final DenseMatrix vectors;
+    private final int m;
+    private final int efConstruction;
+    private final int[] levels;
+    /**
+     * Neighbour lists by node and level: the first slot holds the number of neighbours.
+     */
+    private final int[][][] neighbors;
+    private final Object[] locks;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private HnswGraph(DenseMatrix vectors, int m, int efConstruction, long seed) {
+        this.vectors = vectors;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        int size = vectors.rows();
+        this.levels = new int[size];
+        this.neighbors = new int[size][][];
+        this.locks = new Object[size];
+
+        Random random = new Random(seed);
+        double levelFactor = 1.0 / Math.log(Math.max(2, m));
+        for (int node = 0; node < size; node++) {
+            int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelFactor);
+            levels[node] = Math.min(level, MAX_LEVEL);
+            neighbors[node] = new int[levels[node] + 1][];
+            for (int lc = 0; lc <= levels[node]; lc++) {
+                neighbors[node][lc] = new int[maxNeighbors(lc) + 1];
+            }
+            locks[node] = new Object();
+        }
+    }
+
+    /**
+     * Builds the graph of all the rows of a matrix.
+     * @param vectors the unit vectors to index
+     * @param m the number of neighbours of a node on the upper levels
+     * @param efConstruction the number of nearest nodes considered when linking a new node
+     * @param seed the seed drawing the levels of the nodes
+     * @return the graph
+     */
+    static HnswGraph build(DenseMatrix vectors, int m, int efConstruction, long seed) {
+        HnswGraph graph = new HnswGraph(vectors, m, efConstruction, seed);
+        if (vectors.rows() > 0) {
+            graph.insert(0);
+            IntStream.range(1, vectors.rows()).parallel().forEach(graph::insert);
+        }
+        return graph;
+    }
+
+    int size() {
+        return levels.length;
+    }
+
+    /**
+     * Finds the nodes nearest to a vector.
+     * @param query the unit vector to look for
+     * @param k the number of nodes to return
+     * @param efSearch the number of nodes kept while exploring the bottom level, raised to {@code k} if lower
+     * @return the best {@code k} nodes found, with their dot product with the query
+     */
+    TopKHeap search(float[] query, int k, int efSearch) {
+        int entry;
+        int top;
+        synchronized (this) {
+            entry = entryPoint;
+            top = maxLevel;
+        }
+        if (entry < 0 || k <= 0)
+            return new TopKHeap(0);
+
+        for (int lc = top; lc > 0; lc--) {
+            entry = greedySearch(query, 0, entry, lc);
+        }
+        TopKHeap found = searchLevel(query, 0, entry, Math.max(efSearch, k), 0);
+        TopKHeap best = new TopKHeap(Math.min(k, found.size()));
+        best.offerAll(found);
+        return best;
+    }
+
+    private void insert(int node) {
+        int entry;
+        int top;
+        synchronized (this) {
+            entry = entryPoint;
+            top = maxLevel;
+            if (entry < 0) {
+                entryPoint = node;
+                maxLevel = levels[node];
+                return;
+            }
+        }
+
+        final float[] data = vectors.data();
+        final int offset = node * vectors.dimensions();
+        final int level = levels[node];
+        for (int lc = top; lc > level; lc--) {
+            entry = greedySearch(data, offset, entry, lc);
+        }
+        for (int lc = Math.min(top, level); lc >= 0; lc--) {
+            TopKHeap found = searchLevel(data, offset, entry, efConstruction, lc);
+            int[] candidates = new int[found.size()];
+            double[] scores = new double[found.size()];
+            int count = found.drainSorted(candidates, scores);
+            entry = candidates[0];
+
+            int[] selected = selectNeighbors(node, candidates, scores, count, maxNeighbors(lc));
+            synchronized (locks[node]) {
+                int[] list = neighbors[node][lc];
+                list[0] = selected.length;
+                System.arraycopy(selected, 0, list, 1, selected.length);
+            }
+            for (int neighbor : selected) {
+                link(neighbor, node, lc);
+            }
+        }
+
+        if (level > top) {
+            synchronized (this) {
+                if (level > maxLevel) {
+                    maxLevel = level;
+                    entryPoint = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a node to the neighbours of another one; when the list is full, only the nearest are kept.
+     */
+    private void link(int node, int newNeighbor, int level) {
+        synchronized (locks[node]) {
+            int[] list = neighbors[node][level];
+            int count = list[0];
+            if (count < list.length - 1) {
+                list[count + 1] = newNeighbor;
+                list[0] = count + 1;
+                return;
+            }
+
+            TopKHeap nearest = new TopKHeap(count);
+            for (int i = 1; i <= count; i++) {
+                nearest.offer(list[i], similarity(node, list[i]));
+            }
+            nearest.offer(newNeighbor, similarity(node, newNeighbor));
+            for (int i = 0; i < nearest.size(); i++) {
+                list[i + 1] = nearest.position(i);
+            }
+            list[0] = nearest.size();
+        }
+    }
+
+    /**
+     * Selects the neighbours of a new node among its nearest nodes, with the heuristic of the HNSW paper:
+     * a candidate is skipped if it is nearer to an already selected neighbour than to the new node,
+     * which spreads the links in different directions. The skipped candidates fill the remaining slots.
+     * @param node the new node
+     * @param candidates the nearest nodes, from the nearest
+     * @param scores their dot product with the new node
+     * @param count the number of candidates
+     * @param max the maximum number of neighbours
+     * @return the selected neighbours
+     */
+    private int[] selectNeighbors(int node, int[] candidates, double[] scores, int count, int max) {
+        int[] selected = new int[max];
+        boolean[] taken = new boolean[count];
+        int size = 0;
+        for (int i = 0; i < count && size < max; i++) {
+            if (candidates[i] == node) {
+                taken[i] = true;
+                continue;
+            }
+            boolean diverse = true;
+            for (int j = 0; j < size && diverse; j++) {
+                diverse = similarity(candidates[i], selected[j]) <= scores[i];
+            }
+            if (diverse) {
+                selected[size++] = candidates[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < count && size < max; i++) {
+            if (!taken[i])
+                selected[size++] = candidates[i];
+        }
+        return Arrays.copyOf(selected, size);
+    }
+
+    /**
+     * Moves from the entry to its nearest neighbour as long as it gets nearer to the query.
+     */
+    private int greedySearch(float[] query, int queryOffset, int entry, int level) {
+        int current = entry;
+        double currentScore = similarity(query, queryOffset, current);
+        int[] scratch = new int[maxNeighbors(level)];
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int count = copyNeighbors(current, level, scratch);
+            for (int i = 0; i < count; i++) {
+                double score = similarity(query, queryOffset, scratch[i]);
+                if (score > currentScore) {
+                    currentScore = score;
+                    current = scratch[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first exploration of a level from the entry, keeping the {@code ef} nearest nodes found.
+     */
+    private TopKHeap searchLevel(float[] query, int queryOffset, int entry, int ef, int level) {
+        VisitedSet visited = VISITED.get();
+        visited.reset(size());
+        TopKHeap results = new TopKHeap(ef);
+        NodeQueue candidates = new NodeQueue();
+        int[] scratch = new int[maxNeighbors(level)];
+
+        double entryScore = similarity(query, queryOffset, entry);
+        visited.visit(entry);
+        results.offer(entry, entryScore);
+        candidates.push(entry, entryScore);
+
+        while (!candidates.isEmpty()) {
+            double score = candidates.peekScore();
+            if (results.size() == ef && score < results.score(0))
+                break; // the nearest candidate left is farther than the farthest result
+            int current = candidates.pop();
+
+            int count = copyNeighbors(current, level, scratch);
+            for (int i = 0; i < count; i++) {
+                int neighbor = scratch[i];
+                if (!visited.visit(neighbor))
+                    continue;
+                double neighborScore = similarity(query, queryOffset, neighbor);
+                if (results.size() < ef || neighborScore > results.score(0)) {
+                    candidates.push(neighbor, neighborScore);
+                    results.offer(neighbor, neighborScore);
+                }
+            }
+        }
+        return results;
+    }
+
+    private int copyNeighbors(int node, int level, int[] target) {
+        synchronized (locks[node]) {
+            int[] list = neighbors[node][level];
+            int count = list[0];
+            System.arraycopy(list, 1, target, 0, count);
+            return count;
+        }
+    }
+
+    private int maxNeighbors(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private double similarity(int nodeA, int nodeB) {
+        return similarity(vectors.data(), nodeA * vectors.dimensions(), nodeB);
+    }
+
+    private double similarity(float[] query, int queryOffset, int node) {
+        int dimensions = vectors.dimensions();
+        return DenseMatrix.dot(query, queryOffset, vectors.data(), node * dimensions, dimensions);
+    }
+
+    /**
+     * Max-heap of the nodes to explore, nearest first.
+     */
+    private static final class NodeQueue {
+        private int[] nodes = new int[16];
+        private double[] scores = new double[16];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double peekScore() {
+            return scores[0];
+        }
+
+        void push(int node, double score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] >= score)
+                    break;
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            int node = nodes[size];
+            double score = scores[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && scores[child + 1] > scores[child])
+                    child++;
+                if (scores[child] <= score)
+                    break;
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+            return top;
+        }
+    }
+
+    /**
+     * Per-thread set of the visited nodes, emptied in constant time by moving to a new generation.
+     */
+    private static final class VisitedSet {
+        private int[] generations = new int[0];
+        private int generation;
+
+        void reset(int size) {
+            if (generations.length < size) {
+                generations = new int[size];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(generations, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * Marks a node as visited.
+         * @return true if the node had not been visited yet
+         */
+        boolean visit(int node) {
+            if (generations[node] == generation)
+                return false;
+            generations[node] = generation;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Service provider implementation searching the feature-hashed vectors of {@link HashingSimilarityService}
+ * through an {@link HnswGraph} instead of scanning them, in logarithmic time. The search is approximate:
+ * the graph is tuned with {@code similarity.hnsw.m} (default 16), {@code similarity.hnsw.efConstruction}
+ * (default 100) and {@code similarity.hnsw.efSearch} (default 64); higher values raise the recall
+ * at the expense of the build and search times. The graph is built in parallel when the knowledge base is indexed.
+ * The graph links float rows: {@code similarity.hashing.storage: int8} is not supported and logged at init,
+ * the rows being kept in float.
+ */
+public class HnswSimilarityService extends HashingSimilarityService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HnswSimilarityService.class.getName());
+
+    static final int DEFAULT_M = 16;
+    static final int DEFAULT_EF_CONSTRUCTION = 100;
+    static final int DEFAULT_EF_SEARCH = 64;
+    private static final long SEED = 42L;
+
+    private volatile int m = DEFAULT_M;
+    private volatile int efConstruction = DEFAULT_EF_CONSTRUCTION;
+    private volatile int efSearch = DEFAULT_EF_SEARCH;
+
+    @Override
+    public String id() {
+        return "hnsw";
+    }
+
+    @Override
+    public void init(YamlConfig appConfig) {
+        this.m = appConfig.getInt("similarity.hnsw.m", DEFAULT_M);
+        this.efConstruction = appConfig.getInt("similarity.hnsw.efConstruction", DEFAULT_EF_CONSTRUCTION);
+        this.efSearch = appConfig.getInt("similarity.hnsw.efSearch", DEFAULT_EF_SEARCH);
+        if (m < 2 || efConstruction < 1 || efSearch < 1)
+            throw new IllegalArgumentException("Invalid HNSW parameters: m=" + m
+                    + ", efConstruction=" + efConstruction + ", efSearch=" + efSearch);
+        super.init(appConfig);
+        if ("int8".equalsIgnoreCase(appConfig.getString("similarity.hashing.storage", "float"))) {
+            LOGGER.warn("similarity.hashing.storage int8 is not supported by the hnsw provider, the rows are kept in float");
+            setQuantized(false);
+        }
+    }
+
+    /**
+     * Hashes the questions into float rows, whatever the storage, and links them in a graph.
+     */
+    @Override
+    DenseIndex buildIndex(List<IKnowledge> kb, FeatureHasher hasher) {
+        final DenseIndex index = DenseIndex.build(kb, hasher);
+        return index.withGraph(HnswGraph.build(index.matrix(), m, efConstruction, SEED));
+    }
+
+    /**
+     * Finds the entries nearest to a question through the graph; the negative dot products caused by the
+     * signed hashing are reported as 0, as by the scan of {@link DenseIndex#similarity(float[], int)}.
+     */
+    @Override
+    TopKHeap search(DenseIndex kbIndex, float[] vector, int k) {
+        final TopKHeap found = kbIndex.graph().search(vector, k, efSearch);
+        final TopKHeap best = new TopKHeap(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            best.offer(found.position(i), Math.max(0.0, found.score(i)));
+        }
+        return best;
+    }
+}
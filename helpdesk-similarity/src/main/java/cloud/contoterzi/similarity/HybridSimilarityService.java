@@ -0,0 +1,322 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeDelta;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
+import cloud.contoterzi.helpdesk.core.util.SpiLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Service provider implementation combining a lexical provider ({@code similarity.hybrid.lexical}, default bm25)
+ * and a vector provider ({@code similarity.hybrid.dense}, default hnsw): the best
+ * {@code similarity.hybrid.depth} entries of both (default 20) are fused with reciprocal rank fusion,
+ * an entry scoring {@code sum(1 / (similarity.hybrid.rrfK + rank))} over the rankings it appears in (rrfK default 60).
+ * The vector leg runs on an executor shared by all the requests ({@code similarity.hybrid.threads} threads,
+ * default 2, queueing at most {@code similarity.hybrid.queueSize} requests, default 16) while the lexical leg runs
+ * on the calling thread; when the vector leg has not completed {@code similarity.hybrid.budgetMs} milliseconds
+ * (default 50) after the start of the request, it is cancelled and the lexical ranking is returned alone, so the
+ * latency is bounded by the budget and not by the slower leg. When the queue is full, the vector leg is skipped
+ * the same way.
+ * The fused ranking orders {@link #scoredTopK(String, List, int)}, scored by reciprocal rank. The best match is
+ * the first fused entry whose lexical similarity reaches the threshold, reported with that similarity; without
+ * any, the question goes to the LLM with the best lexical similarity. The threshold is thus always compared with
+ * scores of the same scale, whether the vector leg made it within the budget or not, and an entry boosted by the
+ * vector leg never hides a lexical match above the threshold.
+ */
+public class HybridSimilarityService implements SimilarityService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HybridSimilarityService.class.getName());
+
+    static final String DEFAULT_LEXICAL = "bm25";
+    static final String DEFAULT_DENSE = "hnsw";
+    static final int DEFAULT_DEPTH = 20;
+    static final int DEFAULT_RRF_K = 60;
+    static final long DEFAULT_BUDGET_MS = 50;
+    static final int DEFAULT_THREADS = 2;
+    static final int DEFAULT_QUEUE_SIZE = 16;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private volatile SimilarityService lexical = new Bm25SimilarityService();
+    private volatile SimilarityService dense = new HnswSimilarityService();
+    private volatile int depth = DEFAULT_DEPTH;
+    private volatile int rrfK = DEFAULT_RRF_K;
+    private volatile long budgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUDGET_MS);
+    private volatile ExecutorService executor;
+    private final LongAdder denseTimeouts = new LongAdder();
+    private final LongAdder denseRejections = new LongAdder();
+
+    @Override
+    public String id() {
+        return "hybrid";
+    }
+
+    @Override
+    public void init(YamlConfig appConfig) {
+        final String lexicalType = appConfig.getString("similarity.hybrid.lexical", DEFAULT_LEXICAL);
+        final String denseType = appConfig.getString("similarity.hybrid.dense", DEFAULT_DENSE);
+        this.lexical = leg("similarity.hybrid.lexical", lexicalType);
+        this.dense = leg("similarity.hybrid.dense", denseType);
+        this.lexical.init(appConfig);
+        this.dense.init(appConfig);
+        this.depth = appConfig.getInt("similarity.hybrid.depth", DEFAULT_DEPTH);
+        this.rrfK = appConfig.getInt("similarity.hybrid.rrfK", DEFAULT_RRF_K);
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(appConfig.getInt("similarity.hybrid.budgetMs", (int) DEFAULT_BUDGET_MS));
+        final int threads = appConfig.getInt("similarity.hybrid.threads", DEFAULT_THREADS);
+        final int queueSize = appConfig.getInt("similarity.hybrid.queueSize", DEFAULT_QUEUE_SIZE);
+        if (depth <= 0 || rrfK < 0 || threads <= 0 || queueSize < 0)
+            throw new IllegalArgumentException("Invalid hybrid parameters: depth=" + depth + ", rrfK=" + rrfK
+                    + ", threads=" + threads + ", queueSize=" + queueSize);
+        setExecutor(newExecutor(threads, queueSize));
+        LOGGER.info("Hybrid similarity: {} + {} within {} ms", lexicalType, denseType,
+                TimeUnit.NANOSECONDS.toMillis(budgetNanos));
+    }
+
+    @Override
+    public void index(List<IKnowledge> kb) {
+        lexical.index(kb);
+        dense.index(kb);
+    }
+
+    @Override
+    public boolean applyDelta(List<IKnowledge> updatedKb, KnowledgeDelta delta) {
+        final boolean lexicalIncremental = lexical.applyDelta(updatedKb, delta);
+        final boolean denseIncremental = dense.applyDelta(updatedKb, delta);
+        return lexicalIncremental && denseIncremental;
+    }
+
+    @Override
+    public KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold) {
+        if (question == null || question.trim().isEmpty() || kb == null || kb.isEmpty()) {
+            return new KnowledgeBestMatch(true, 0.0, null);
+        }
+
+        final List<Fused> fused = fuse(question, kb, depth);
+        double bestSimilarity = 0.0;
+        for (Fused entry : fused) {
+            // The fusion orders the lexical matches, it does not hide them behind an entry ranked by the vector leg
+            if (entry.similarity >= threshold)
+                return new KnowledgeBestMatch(false, entry.similarity, entry.entry);
+            bestSimilarity = Math.max(bestSimilarity, entry.similarity);
+        }
+        return new KnowledgeBestMatch(bestSimilarity < threshold, bestSimilarity, null);
+    }
+
+    @Override
+    public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+        final List<ScoredKnowledge> scored = scoredTopK(question, kb, topK);
+        final List<IKnowledge> result = new ArrayList<>(scored.size());
+        for (ScoredKnowledge entry : scored) {
+            result.add(entry.getEntry());
+        }
+        return result;
+    }
+
+    @Override
+    public List<ScoredKnowledge> scoredTopK(String question, List<IKnowledge> kb, int topK) {
+        if (question == null || question.trim().isEmpty() || kb == null || kb.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+
+        final List<Fused> fused = fuse(question, kb, Math.max(depth, topK));
+        final List<ScoredKnowledge> result = new ArrayList<>(Math.min(topK, fused.size()));
+        for (int i = 0; i < fused.size() && i < topK; i++) {
+            result.add(new ScoredKnowledge(fused.get(i).entry, fused.get(i).rrfScore));
+        }
+        return result;
+    }
+
+    /**
+     * Number of requests whose vector leg missed the latency budget.
+     * @return the timeouts since the service was created
+     */
+    public long getDenseTimeouts() {
+        return denseTimeouts.sum();
+    }
+
+    /**
+     * Number of requests whose vector leg was skipped because the executor queue was full.
+     * @return the rejections since the service was created
+     */
+    public long getDenseRejections() {
+        return denseRejections.sum();
+    }
+
+    /**
+     * Sets the legs and the budget of the service, replacing the configured ones.
+     */
+    void setLegs(SimilarityService lexical, SimilarityService dense, long budgetMillis) {
+        this.lexical = lexical;
+        this.dense = dense;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * Replaces the executor of the vector leg.
+     * @param threads the number of threads
+     * @param queueSize the number of requests waiting for a thread, 0 to skip the vector leg when all are busy
+     */
+    void setDenseExecutor(int threads, int queueSize) {
+        setExecutor(newExecutor(threads, queueSize));
+    }
+
+    /**
+     * Loads the provider of a leg.
+     * @throws IllegalArgumentException if the type is the hybrid provider itself or no provider has this id
+     */
+    private SimilarityService leg(String key, String type) {
+        if (id().equalsIgnoreCase(type))
+            throw new IllegalArgumentException(key + " cannot be the hybrid provider itself");
+        SimilarityService service;
+        try {
+            service = SpiLoader.loadByKey(SimilarityService.class, type);
+        } catch (NoSuchElementException e) {
+            service = null;
+        }
+        if (service == null)
+            throw new IllegalArgumentException("No similarity provider found for " + key + ": " + type);
+        return service;
+    }
+
+    /**
+     * Runs both legs and fuses their rankings, without the vector one if it misses the budget.
+     * @return the fused entries, from the best
+     */
+    private List<Fused> fuse(String question, List<IKnowledge> kb, int legDepth) {
+        final long deadline = System.nanoTime() + budgetNanos;
+        final SimilarityService denseLeg = dense;
+        final ExecutorService denseExecutor = executor();
+        Future<List<ScoredKnowledge>> denseRanking;
+        try {
+            denseRanking = denseExecutor.submit(() -> denseLeg.scoredTopK(question, kb, legDepth));
+        } catch (RejectedExecutionException e) {
+            denseRanking = null;
+            denseRejections.increment();
+            LOGGER.debug("Vector leg queue full, lexical ranking only");
+        }
+
+        final Map<IKnowledge, Fused> byEntry = new IdentityHashMap<>();
+        final List<Fused> fused = new ArrayList<>();
+        accumulate(lexical.scoredTopK(question, kb, legDepth), true, byEntry, fused);
+        if (denseRanking == null)
+            return sorted(fused);
+
+        try {
+            accumulate(denseRanking.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS),
+                    false, byEntry, fused);
+        } catch (TimeoutException e) {
+            cancel(denseExecutor, denseRanking);
+            denseTimeouts.increment();
+            LOGGER.debug("Vector leg over the {} ms budget, lexical ranking only", TimeUnit.NANOSECONDS.toMillis(budgetNanos));
+        } catch (ExecutionException e) {
+            LOGGER.warn("Vector leg failed, lexical ranking only", e.getCause());
+        } catch (InterruptedException e) {
+            cancel(denseExecutor, denseRanking);
+            Thread.currentThread().interrupt();
+        }
+        return sorted(fused);
+    }
+
+    private static List<Fused> sorted(List<Fused> fused) {
+        // Stable sort: on equal fused scores, the lexical ranking decides
+        fused.sort(Comparator.comparingDouble((Fused f) -> f.rrfScore).reversed());
+        return fused;
+    }
+
+    /**
+     * Cancels a vector leg, taking it out of the queue if it has not started yet.
+     */
+    private static void cancel(ExecutorService denseExecutor, Future<?> denseRanking) {
+        denseRanking.cancel(true);
+        if (denseExecutor instanceof ThreadPoolExecutor && denseRanking instanceof Runnable)
+            ((ThreadPoolExecutor) denseExecutor).remove((Runnable) denseRanking);
+    }
+
+    /**
+     * Adds a ranking to the fused entries.
+     * @param lexicalLeg true for the ranking of the lexical leg, the only one giving the similarity of the entries
+     */
+    private void accumulate(List<ScoredKnowledge> ranking, boolean lexicalLeg, Map<IKnowledge, Fused> byEntry,
+                            List<Fused> fused) {
+        for (int rank = 0; rank < ranking.size(); rank++) {
+            final ScoredKnowledge scored = ranking.get(rank);
+            if (scored.getScore() <= 0.0)
+                break; // the padding entries sharing nothing with the question are not ranked
+            Fused entry = byEntry.get(scored.getEntry());
+            if (entry == null) {
+                entry = new Fused(scored.getEntry());
+                byEntry.put(scored.getEntry(), entry);
+                fused.add(entry);
+            }
+            entry.rrfScore += 1.0 / (rrfK + rank + 1);
+            if (lexicalLeg && !Double.isNaN(scored.getScore()))
+                entry.similarity = scored.getScore();
+        }
+    }
+
+    private ExecutorService executor() {
+        ExecutorService current = executor;
+        if (current != null)
+            return current;
+        synchronized (this) {
+            if (executor == null)
+                executor = newExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+            return executor;
+        }
+    }
+
+    private synchronized void setExecutor(ExecutorService newExecutor) {
+        final ExecutorService previous = executor;
+        executor = newExecutor;
+        if (previous != null)
+            previous.shutdown();
+    }
+
+    /**
+     * Creates a fixed pool whose queue is bounded: a request finding it full is rejected instead of waiting
+     * behind vector legs which would miss their budget anyway.
+     */
+    private static ExecutorService newExecutor(int threads, int queueSize) {
+        final BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "hybrid-similarity-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * An entry of the fused ranking.
+     */
+    private static final class Fused {
+        private final IKnowledge entry;
+        private double rrfScore;
+        private double similarity;
+
+        Fused(IKnowledge entry) {
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Versioned binary snapshot of a {@link KnowledgeIndex}, read at startup so that a cold start restores the index
+ * without tokenizing the knowledge base again. The file is mapped only to be read in bulk: this is a fast
+ * deserialization, not a mapped index. The arrays are copied to the heap, the words interned again and the posting
+ * lists rebuilt, so a cold start still allocates the whole index and hashes every word, but parses no question.
+ * The file starts with a magic number, the format version and a SHA-256 key of the knowledge base questions
+ * and of the index parameters; a snapshot with another version or key is stale and ignored.
+ * It is written to a temporary file moved over the previous snapshot, so a reader never maps a partial file.
+ */
+final class IndexSnapshot {
+
+    static final int MAGIC = 0x48444958; // "HDIX"
+    static final int VERSION = 1;
+    private static final int KEY_LENGTH = 32;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + KEY_LENGTH;
+
+    private IndexSnapshot() {
+    }
+
+    /**
+     * Computes the key of a knowledge base: only the questions are indexed, so the answers are left out.
+     * @param kb the knowledge base
+     * @param parameters the description of everything else shaping the index (provider, tokenizer, weighting)
+     * @return the SHA-256 digest
+     */
+    static byte[] key(List<IKnowledge> kb, String parameters) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+        for (IKnowledge entry : kb) {
+            digest.update((byte) 0);
+            String question = entry.getQuestion();
+            if (question != null)
+                digest.update(question.getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Maps a snapshot read-only and restores its index.
+     * @param path the snapshot file
+     * @param key the key of the knowledge base, see {@link #key(List, String)}
+     * @param kb the knowledge base
+     * @param weighting the weighting of the index, fitted on the stored statistics
+     * @return the index, null if the file is missing or was written for another version or key
+     * @throws IOException if the file cannot be read or is corrupted
+     */
+    static KnowledgeIndex read(Path path, byte[] key, List<IKnowledge> kb, TermWeighting weighting) throws IOException {
+        if (!Files.isRegularFile(path))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+            byte[] storedKey = new byte[KEY_LENGTH];
+            buffer.get(storedKey);
+            if (!Arrays.equals(storedKey, key))
+                return null;
+            return KnowledgeIndex.readFrom(buffer, kb, weighting);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted index snapshot: " + path, e);
+        }
+    }
+
+    /**
+     * Writes the snapshot of an index, replacing the previous one.
+     * @param path the snapshot file
+     * @param key the key of the knowledge base, see {@link #key(List, String)}
+     * @param index the index of the knowledge base
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path path, byte[] key, KnowledgeIndex index) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            long size = (long) HEADER_SIZE + index.serializedSize();
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(MAGIC).putInt(VERSION).put(key);
+                index.writeTo(buffer);
+                buffer.force();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable index of a knowledge base: every question is tokenized once, when the index is built,
+ * so that the scoring of a request only needs to tokenize the incoming question.
+ * The words are interned in a {@link TermDictionary} and the vectors of all the entries are stored
+ * flat (sorted term ids and weights of entry {@code i} between {@code offsets[i]} and {@code offsets[i + 1]}).
+ * An inverted index (term id to posting list) restricts the scoring to the entries sharing
+ * at least one word with the question, the only ones with a cosine similarity above zero.
+ * For every word, the index also keeps the highest weight it has in a normalized entry vector:
+ * an upper bound of its contribution to any cosine similarity, used to prune the best-match search.
+ */
+final class KnowledgeIndex {
+
+    private final IKnowledge[] entries;
+    private final TermDictionary dictionary;
+    private final TermWeighting weighting;
+    private final int[] offsets;
+    private final int[] termIds;
+    private final float[] weights;
+    private final double[] norms;
+    private final PostingList[] postings;
+    private final float[] upperBounds;
+    private final double averageLength;
+
+    private KnowledgeIndex(IKnowledge[] entries, TermDictionary dictionary,
+                           TermWeighting weighting, int[] offsets, int[] termIds, float[] weights, double[] norms,
+                           PostingList[] postings, float[] upperBounds, double averageLength) {
+        this.entries = entries;
+        this.dictionary = dictionary;
+        this.weighting = weighting;
+        this.offsets = offsets;
+        this.termIds = termIds;
+        this.weights = weights;
+        this.norms = norms;
+        this.postings = postings;
+        this.upperBounds = upperBounds;
+        this.averageLength = averageLength;
+    }
+
+    /**
+     * Tokenizes all the questions of the knowledge base, weighting the words by their frequency.
+     * @param kb the knowledge base to index
+     * @param matcher the matcher used to tokenize the questions
+     * @return the index of the knowledge base
+     */
+    static KnowledgeIndex build(List<IKnowledge> kb, SequenceMatcherJava matcher) {
+        return build(kb, matcher, new TermWeighting.TermFrequency());
+    }
+
+    /**
+     * Tokenizes all the questions of the knowledge base.
+     * @param kb the knowledge base to index
+     * @param matcher the matcher used to tokenize the questions
+     * @param weighting the weighting of the words, fitted on the knowledge base
+     * @return the index of the knowledge base
+     */
+    static KnowledgeIndex build(List<IKnowledge> kb, SequenceMatcherJava matcher, TermWeighting weighting) {
+        IKnowledge[] entries = kb.toArray(new IKnowledge[0]);
+        TermDictionary dictionary = new TermDictionary();
+        int[] offsets = new int[entries.length + 1];
+        int[] termIds = new int[Math.max(16, entries.length * 8)];
+        float[] weights = new float[termIds.length];
+        int[] lengths = new int[entries.length];
+        long totalLength = 0;
+
+        for (int i = 0; i < entries.length; i++) {
+            SparseVector vector = matcher.vectorize(entries[i].getQuestion(), dictionary);
+            int offset = offsets[i];
+            if (offset + vector.size() > termIds.length) {
+                int capacity = Math.max(termIds.length * 2, offset + vector.size());
+                termIds = Arrays.copyOf(termIds, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+            }
+            for (int j = 0; j < vector.size(); j++) {
+                termIds[offset + j] = vector.id(j);
+                weights[offset + j] = vector.weight(j);
+                lengths[i] += (int) vector.weight(j);
+            }
+            offsets[i + 1] = offset + vector.size();
+            totalLength += lengths[i];
+        }
+
+        int total = offsets[entries.length];
+        termIds = Arrays.copyOf(termIds, total);
+        weights = Arrays.copyOf(weights, total);
+
+        int[] documentFrequencies = documentFrequencies(dictionary.size(), termIds);
+        double averageLength = entries.length == 0 ? 0.0 : (double) totalLength / entries.length;
+        weighting.fit(documentFrequencies, entries.length, averageLength);
+
+        double[] norms = new double[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                weights[j] = weighting.documentWeight(termIds[j], weights[j], lengths[i]);
+            }
+            norms[i] = SparseVector.norm(weights, offsets[i], offsets[i + 1]);
+        }
+
+        PostingList[] postings = postings(documentFrequencies, offsets, termIds, weights);
+
+        float[] upperBounds = new float[dictionary.size()];
+        for (int i = 0; i < entries.length; i++) {
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                // Rounded up, so that the bound is never below the exact value
+                float bound = Math.nextUp((float) (weights[j] / norms[i]));
+                if (bound > upperBounds[termIds[j]])
+                    upperBounds[termIds[j]] = bound;
+            }
+        }
+
+        return new KnowledgeIndex(entries, dictionary, weighting, offsets, termIds, weights, norms,
+                postings, upperBounds, averageLength);
+    }
+
+    /**
+     * Restores an index written by {@link #writeTo(ByteBuffer)}: the words are interned again in the same
+     * order and the posting lists are rebuilt from the entry vectors, without tokenizing any question.
+     * The buffer is only read: the arrays of the index are copied to the heap, none of them is a view of it.
+     * @param buffer the buffer positioned at the start of the index
+     * @param kb the knowledge base the index was built from
+     * @param weighting the weighting the index was built with, fitted again on the stored statistics
+     * @return the index of the knowledge base
+     * @throws IllegalArgumentException if the index does not match the size of the knowledge base
+     */
+    static KnowledgeIndex readFrom(ByteBuffer buffer, List<IKnowledge> kb, TermWeighting weighting) {
+        int entryCount = buffer.getInt();
+        int termCount = buffer.getInt();
+        int total = buffer.getInt();
+        int charCount = buffer.getInt();
+        double averageLength = buffer.getDouble();
+        if (entryCount != kb.size())
+            throw new IllegalArgumentException("Index of " + entryCount + " entries for a knowledge base of " + kb.size());
+
+        int[] termEnds = getInts(buffer, termCount);
+        char[] chars = new char[charCount];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + charCount * Character.BYTES);
+        TermDictionary dictionary = new TermDictionary(termCount);
+        int start = 0;
+        for (int termId = 0; termId < termCount; termId++) {
+            dictionary.intern(CharBuffer.wrap(chars, start, termEnds[termId] - start));
+            start = termEnds[termId];
+        }
+
+        int[] offsets = getInts(buffer, entryCount + 1);
+        int[] termIds = getInts(buffer, total);
+        float[] weights = new float[total];
+        buffer.asFloatBuffer().get(weights);
+        buffer.position(buffer.position() + total * Float.BYTES);
+        double[] norms = new double[entryCount];
+        buffer.asDoubleBuffer().get(norms);
+        buffer.position(buffer.position() + entryCount * Double.BYTES);
+        float[] upperBounds = new float[termCount];
+        buffer.asFloatBuffer().get(upperBounds);
+        buffer.position(buffer.position() + termCount * Float.BYTES);
+
+        int[] documentFrequencies = documentFrequencies(termCount, termIds);
+        weighting.fit(documentFrequencies, entryCount, averageLength);
+        return new KnowledgeIndex(kb.toArray(new IKnowledge[0]), dictionary, weighting, offsets, termIds, weights,
+                norms, postings(documentFrequencies, offsets, termIds, weights), upperBounds, averageLength);
+    }
+
+    /**
+     * Number of bytes written by {@link #writeTo(ByteBuffer)}.
+     */
+    int serializedSize() {
+        long chars = 0;
+        for (int termId = 0; termId < dictionary.size(); termId++) {
+            chars += dictionary.term(termId).length();
+        }
+        long size = 4L * Integer.BYTES + Double.BYTES
+                + (long) dictionary.size() * Integer.BYTES + chars * Character.BYTES
+                + (long) offsets.length * Integer.BYTES
+                + (long) termIds.length * (Integer.BYTES + Float.BYTES)
+                + (long) norms.length * Double.BYTES
+                + (long) upperBounds.length * Float.BYTES;
+        return Math.toIntExact(size);
+    }
+
+    /**
+     * Writes the words and the weighted vectors of the index; the posting lists can be derived from them.
+     * @param buffer the buffer receiving {@link #serializedSize()} bytes
+     */
+    void writeTo(ByteBuffer buffer) {
+        int termCount = dictionary.size();
+        int[] termEnds = new int[termCount];
+        int charCount = 0;
+        for (int termId = 0; termId < termCount; termId++) {
+            charCount += dictionary.term(termId).length();
+            termEnds[termId] = charCount;
+        }
+
+        buffer.putInt(entries.length).putInt(termCount).putInt(termIds.length).putInt(charCount).putDouble(averageLength);
+        putInts(buffer, termEnds);
+        for (int termId = 0; termId < termCount; termId++) {
+            String term = dictionary.term(termId);
+            for (int i = 0; i < term.length(); i++) {
+                buffer.putChar(term.charAt(i));
+            }
+        }
+        putInts(buffer, offsets);
+        putInts(buffer, termIds);
+        buffer.asFloatBuffer().put(weights);
+        buffer.position(buffer.position() + weights.length * Float.BYTES);
+        buffer.asDoubleBuffer().put(norms);
+        buffer.position(buffer.position() + norms.length * Double.BYTES);
+        buffer.asFloatBuffer().put(upperBounds);
+        buffer.position(buffer.position() + upperBounds.length * Float.BYTES);
+    }
+
+    private static int[] documentFrequencies(int termCount, int[] termIds) {
+        int[] documentFrequencies = new int[termCount];
+        for (int termId : termIds) {
+            documentFrequencies[termId]++;
+        }
+        return documentFrequencies;
+    }
+
+    private static PostingList[] postings(int[] documentFrequencies, int[] offsets, int[] termIds, float[] weights) {
+        PostingList[] postings = new PostingList[documentFrequencies.length];
+        for (int termId = 0; termId < postings.length; termId++) {
+            postings[termId] = new PostingList(documentFrequencies[termId]);
+        }
+        for (int i = 0; i + 1 < offsets.length; i++) {
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                postings[termIds[j]].add(i, weights[j]);
+            }
+        }
+        return postings;
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+    }
+
+    /**
+     * Tokenizes and weights an incoming question, without modifying the index.
+     * @param question the question
+     * @param matcher the matcher which built the index
+     * @return the weighted vector of the question
+     */
+    SparseVector queryVector(String question, SequenceMatcherJava matcher) {
+        return weighting.queryVector(matcher.vectorizeQuery(question, dictionary));
+    }
+
+    /**
+     * Accumulates the dot product between the question and the entries of a range of positions
+     * sharing at least one word with it.
+     * @param question the vector of the question, built with {@link #queryVector(String, SequenceMatcherJava)}
+     * @param accumulator the accumulator receiving the partial dot products
+     * @param from the first position of the range, inclusive
+     * @param to the last position of the range, exclusive
+     */
+    void accumulateDotProducts(SparseVector question, ScoreAccumulator accumulator, int from, int to) {
+        for (int k = 0; k < question.size(); k++) {
+            int termId = question.id(k);
+            if (termId >= postings.length)
+                break; // words unknown to the knowledge base come last
+            PostingList posting = postings[termId];
+            float questionWeight = question.weight(k);
+            int i = from == 0 ? 0 : posting.indexOf(from);
+            for (; i < posting.size(); i++) {
+                int position = posting.position(i);
+                if (position >= to)
+                    break;
+                accumulator.add(position, (double) questionWeight * posting.weight(i));
+            }
+        }
+    }
+
+    /**
+     * Cosine similarity between the question and a single entry, looking up the words of the question
+     * in the vector of the entry.
+     * @param question the vector of the question, built with {@link #queryVector(String, SequenceMatcherJava)}
+     * @param position the position of the entry
+     * @return the cosine similarity
+     */
+    double cosine(SparseVector question, int position) {
+        double dotProduct = 0.0;
+        for (int k = 0; k < question.size(); k++) {
+            int termId = question.id(k);
+            if (termId >= postings.length)
+                break; // words unknown to the knowledge base come last
+            dotProduct += (double) question.weight(k) * weight(position, termId);
+        }
+        return ScoringTask.cosine(dotProduct, question.norm(), norms[position]);
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    IKnowledge entry(int position) {
+        return entries[position];
+    }
+
+    double norm(int position) {
+        return norms[position];
+    }
+
+    /**
+     * Number of distinct words of the knowledge base: the ids of the question words
+     * from this value on are unknown to the index.
+     */
+    int termCount() {
+        return postings.length;
+    }
+
+    PostingList posting(int termId) {
+        return postings[termId];
+    }
+
+    /**
+     * Highest weight of a word in the normalized vector of an entry.
+     * @param termId the id of the word
+     * @return the highest value of {@code weight / norm} over the entries containing the word
+     */
+    float upperBound(int termId) {
+        return upperBounds[termId];
+    }
+
+    /**
+     * Weight of a word in the vector of an entry.
+     * @param position the position of the entry
+     * @param termId the id of the word
+     * @return the weight of the word, 0 if the entry does not contain it
+     */
+    float weight(int position, int termId) {
+        int j = Arrays.binarySearch(termIds, offsets[position], offsets[position + 1], termId);
+        return j >= 0 ? weights[j] : 0f;
+    }
+}
@@ -0,0 +1,119 @@
+package cloud.contoterzi.similarity;
+
+/**
+ * Best-match search with MaxScore pruning. The words of the question are processed by decreasing
+ * upper bound of their contribution to the cosine similarity ({@code questionWeight * upperBound / questionNorm}).
+ * Every partial score is a lower bound of the final one, so the best partial score is a floor that the
+ * best match has to reach. Once the bounds of the remaining words add up to less than the floor, no entry
+ * outside the current candidates can win: the remaining posting lists are not walked any more, the
+ * candidates whose partial score plus the remaining bounds stays below the floor are dropped, and only
+ * the other ones are completed by looking up the remaining words in their own vectors.
+ * The long entries, whose normalized weights are low, are the first to be dropped.
+ * The tombstoned positions are skipped as the posting lists are walked, so that they neither compete nor raise
+ * the floor.
+ */
+final class MaxScoreSearch {
+
+    /**
+     * Margin absorbing the rounding differences between the bounds and the exact scores.
+     */
+    private static final double EPSILON = 1e-9;
+
+    private MaxScoreSearch() {
+    }
+
+    /**
+     * Finds the best entry of a range of positions.
+     * @param index the knowledge base index
+     * @param question the weighted vector of the question
+     * @param from the first position of the range, inclusive
+     * @param to the last position of the range, exclusive
+     * @param floor the score the best entry has to reach to be of interest: 0 to always find the best entry;
+     *              a higher value allows to drop the entries which cannot reach it, so that when no entry
+     *              reaches it the result is only the best of the entries kept
+     * @return a heap holding the best position with its cosine similarity, empty if no entry shares a word with the question
+     */
+    static TopKHeap bestMatch(KnowledgeIndex index, SparseVector question, int from, int to, double floor) {
+        return bestMatch(index, question, from, to, floor, null);
+    }
+
+    /**
+     * Finds the best live entry of a range of positions.
+     * @param removed the tombstones of the positions, see {@link SegmentedIndex#tombstones()}; null if none
+     * @see #bestMatch(KnowledgeIndex, SparseVector, int, int, double)
+     */
+    static TopKHeap bestMatch(KnowledgeIndex index, SparseVector question, int from, int to, double floor,
+                              boolean[] removed) {
+        final double questionNorm = question.norm();
+        int termCount = 0;
+        while (termCount < question.size() && question.id(termCount) < index.termCount()) {
+            termCount++; // words unknown to the knowledge base come last
+        }
+        final TopKHeap best = new TopKHeap(1);
+        if (termCount == 0 || questionNorm == 0.0)
+            return best;
+
+        // Words ordered by decreasing bound, and bounds of the words from j on
+        final int[] order = new int[termCount];
+        final double[] bounds = new double[termCount];
+        for (int k = 0; k < termCount; k++) {
+            double bound = question.weight(k) * (double) index.upperBound(question.id(k)) / questionNorm;
+            int j = k;
+            while (j > 0 && bounds[j - 1] < bound) {
+                order[j] = order[j - 1];
+                bounds[j] = bounds[j - 1];
+                j--;
+            }
+            order[j] = k;
+            bounds[j] = bound;
+        }
+        final double[] remaining = new double[termCount + 1];
+        for (int j = termCount - 1; j >= 0; j--) {
+            remaining[j] = remaining[j + 1] + bounds[j];
+        }
+
+        final ScoreAccumulator candidates = ScoreAccumulator.forSize(index.size());
+        double threshold = floor;
+        int j = 0;
+        for (; j < termCount && remaining[j] + EPSILON >= threshold; j++) {
+            int k = order[j];
+            PostingList posting = index.posting(question.id(k));
+            float questionWeight = question.weight(k);
+            int i = from == 0 ? 0 : posting.indexOf(from);
+            for (; i < posting.size(); i++) {
+                int position = posting.position(i);
+                if (position >= to)
+                    break;
+                if (isRemoved(removed, position))
+                    continue;
+                candidates.add(position, (double) questionWeight * posting.weight(i));
+                double partial = candidates.score(position) / (questionNorm * index.norm(position));
+                if (partial > threshold)
+                    threshold = partial;
+            }
+        }
+
+        for (int c = 0; c < candidates.candidateCount(); c++) {
+            int position = candidates.candidate(c);
+            double dotProduct = candidates.score(position);
+            if (j < termCount) {
+                double entryNorm = index.norm(position);
+                if (dotProduct / (questionNorm * entryNorm) + remaining[j] + EPSILON < threshold)
+                    continue;
+                for (int r = j; r < termCount; r++) {
+                    int k = order[r];
+                    dotProduct += (double) question.weight(k) * index.weight(position, question.id(k));
+                }
+            }
+            double similarity = ScoringTask.cosine(dotProduct, questionNorm, index.norm(position));
+            if (similarity > threshold)
+                threshold = similarity;
+            best.offer(position, similarity);
+        }
+        return best;
+    }
+
+    static boolean isRemoved(boolean[] removed, int position) {
+        return removed != null && position < removed.length && removed[position];
+    }
+}
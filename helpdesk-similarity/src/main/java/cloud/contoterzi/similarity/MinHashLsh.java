@@ -0,0 +1,166 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.similarity.Tokenizer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Locality-sensitive hashing of the word sets of the knowledge base questions, finding near-duplicate
+ * questions without scoring the whole knowledge base.
+ * Every question gets a MinHash signature of {@code bands * rows} values (the lowest hash of its words under
+ * as many hash functions); the signature is cut in {@code bands} bands of {@code rows} values, and two
+ * questions collide if they have at least one identical band. Two questions whose word sets have a
+ * Jaccard similarity {@code s} collide with probability {@code 1 - (1 - s^rows)^bands}: more rows make
+ * the buckets stricter, more bands catch less similar questions.
+ * The buckets of a band are a sorted array of {@code bandHash << 32 | position} values, searched by bisection.
+ */
+final class MinHashLsh implements CandidateGenerator {
+
+    private static final int[] NO_CANDIDATES = new int[0];
+    private static final ThreadLocal<WordHashCollector> COLLECTOR = ThreadLocal.withInitial(WordHashCollector::new);
+
+    private final Tokenizer tokenizer;
+    private final int bands;
+    private final int rows;
+    private final int[] seeds;
+    private final long[][] buckets;
+
+    private MinHashLsh(Tokenizer tokenizer, int bands, int rows, int[] seeds, long[][] buckets) {
+        this.tokenizer = tokenizer;
+        this.bands = bands;
+        this.rows = rows;
+        this.seeds = seeds;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Hashes the words of all the questions of the knowledge base into the buckets of every band.
+     * @param kb the knowledge base to index
+     * @param tokenizer the tokenizer splitting the questions into words
+     * @param bands the number of bands of a signature
+     * @param rows the number of values of a band
+     * @param seed the seed drawing the hash functions
+     * @return the buckets of the knowledge base
+     */
+    static MinHashLsh build(List<IKnowledge> kb, Tokenizer tokenizer, int bands, int rows, long seed) {
+        if (bands <= 0 || rows <= 0)
+            throw new IllegalArgumentException("Invalid LSH parameters: bands=" + bands + ", rows=" + rows);
+
+        int[] seeds = new int[bands * rows];
+        Random random = new Random(seed);
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = random.nextInt();
+        }
+        MinHashLsh lsh = new MinHashLsh(tokenizer, bands, rows, seeds, new long[bands][]);
+
+        long[][] keys = new long[bands][kb.size()];
+        int count = 0;
+        int[] bandHashes = new int[bands];
+        for (int position = 0; position < kb.size(); position++) {
+            if (!lsh.bandHashes(kb.get(position).getQuestion(), bandHashes))
+                continue; // a question without words collides with nothing
+            for (int band = 0; band < bands; band++) {
+                keys[band][count] = (long) bandHashes[band] << 32 | position;
+            }
+            count++;
+        }
+        for (int band = 0; band < bands; band++) {
+            lsh.buckets[band] = Arrays.copyOf(keys[band], count);
+            Arrays.sort(lsh.buckets[band]);
+        }
+        return lsh;
+    }
+
+    @Override
+    public int[] candidates(String question) {
+        int[] bandHashes = new int[bands];
+        if (!bandHashes(question, bandHashes))
+            return NO_CANDIDATES;
+
+        int[] candidates = new int[16];
+        int count = 0;
+        for (int band = 0; band < bands; band++) {
+            long[] keys = buckets[band];
+            long first = (long) bandHashes[band] << 32;
+            int i = Arrays.binarySearch(keys, first);
+            if (i < 0)
+                i = -i - 1;
+            for (; i < keys.length && keys[i] >>> 32 == first >>> 32; i++) {
+                if (count == candidates.length)
+                    candidates = Arrays.copyOf(candidates, count * 2);
+                candidates[count++] = (int) keys[i];
+            }
+        }
+
+        Arrays.sort(candidates, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || candidates[distinct - 1] != candidates[i])
+                candidates[distinct++] = candidates[i];
+        }
+        return Arrays.copyOf(candidates, distinct);
+    }
+
+    /**
+     * Computes the MinHash signature of a text and hashes each of its bands.
+     * @param text the text
+     * @param bandHashes receives the hash of every band
+     * @return false if the text has no words
+     */
+    private boolean bandHashes(String text, int[] bandHashes) {
+        WordHashCollector collector = COLLECTOR.get();
+        collector.count = 0;
+        if (text != null)
+            tokenizer.tokenize(text, collector);
+        if (collector.count == 0)
+            return false;
+
+        for (int band = 0; band < bands; band++) {
+            int bandHash = band;
+            for (int row = 0; row < rows; row++) {
+                int seed = seeds[band * rows + row];
+                int min = Integer.MAX_VALUE;
+                for (int i = 0; i < collector.count; i++) {
+                    min = Math.min(min, mix(collector.hashes[i] ^ seed));
+                }
+                bandHash = 31 * bandHash + min;
+            }
+            bandHashes[band] = mix(bandHash);
+        }
+        return true;
+    }
+
+    /**
+     * Murmur3 finalizer: a different seed xor-ed in gives an independent-looking permutation of the word hashes.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Reusable receiver of the tokens, hashing the words without creating Strings.
+     */
+    private static final class WordHashCollector implements Tokenizer.TokenSink {
+        private int[] hashes = new int[16];
+        private int count;
+
+        @Override
+        public void accept(char[] buffer, int length) {
+            int h = 0;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + buffer[i];
+            }
+            if (count == hashes.length)
+                hashes = Arrays.copyOf(hashes, count * 2);
+            hashes[count++] = h;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package cloud.contoterzi.similarity;
+
+import java.util.Arrays;
+
+/**
+ * Posting list of a term: the positions of the knowledge base entries containing the term,
+ * in ascending order, with the weight of the term in each entry.
+ * It is sized with the document frequency of the term, so it holds no spare capacity once filled.
+ */
+final class PostingList {
+
+    private int[] positions;
+    private float[] weights;
+    private int size;
+
+    PostingList(int capacity) {
+        this.positions = new int[Math.max(1, capacity)];
+        this.weights = new float[positions.length];
+    }
+
+    void add(int position, float weight) {
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+            weights = Arrays.copyOf(weights, size * 2);
+        }
+        positions[size] = position;
+        weights[size] = weight;
+        size++;
+    }
+
+    /**
+     * Index of the first entry of the list whose position is not lower than the given one.
+     * @param position the position to look for
+     * @return the index of the entry, {@link #size()} if all the positions are lower
+     */
+    int indexOf(int position) {
+        int index = Arrays.binarySearch(positions, 0, size, position);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int position(int i) {
+        return positions[i];
+    }
+
+    float weight(int i) {
+        return weights[i];
+    }
+}
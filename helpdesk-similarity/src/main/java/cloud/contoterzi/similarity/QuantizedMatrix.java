@@ -0,0 +1,96 @@
+package cloud.contoterzi.similarity;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Row-major matrix of int8-quantized vectors kept off-heap, in a direct {@link ByteBuffer}: one byte per
+ * component instead of the four of a float, outside of the memory scanned by the garbage collector.
+ * Every row is scaled independently: the component {@code v} is stored as {@code round(v / scale)}
+ * with {@code scale = max(|v|) / 127}, so the dot products computed from the stored rows are approximate.
+ * The direct memory counts against {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ */
+final class QuantizedMatrix implements VectorStore {
+
+    private static final ThreadLocal<byte[]> ROW = ThreadLocal.withInitial(() -> new byte[0]);
+
+    private final ByteBuffer data;
+    private final float[] scales;
+    private final int rows;
+    private final int dimensions;
+
+    QuantizedMatrix(int rows, int dimensions) {
+        this.data = ByteBuffer.allocateDirect(Math.multiplyExact(rows, dimensions));
+        this.scales = new float[rows];
+        this.rows = rows;
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * Quantizes and stores a row.
+     * @param row the row
+     * @param vector the vector to store, {@link #dimensions()} long
+     */
+    void set(int row, float[] vector) {
+        float max = 0f;
+        for (int i = 0; i < dimensions; i++) {
+            max = Math.max(max, Math.abs(vector[i]));
+        }
+        int offset = row * dimensions;
+        if (max == 0f) {
+            scales[row] = 0f;
+            for (int i = 0; i < dimensions; i++) {
+                data.put(offset + i, (byte) 0);
+            }
+            return;
+        }
+
+        float scale = max / 127f;
+        scales[row] = scale;
+        for (int i = 0; i < dimensions; i++) {
+            int quantized = Math.round(vector[i] / scale);
+            data.put(offset + i, (byte) Math.max(-127, Math.min(127, quantized)));
+        }
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public float dot(float[] vector, int row) {
+        float scale = scales[row];
+        if (scale == 0f)
+            return 0f;
+
+        byte[] quantized = ROW.get();
+        if (quantized.length < dimensions) {
+            quantized = new byte[dimensions];
+            ROW.set(quantized);
+        }
+        data.get(row * dimensions, quantized, 0, dimensions);
+
+        float sum0 = 0f;
+        float sum1 = 0f;
+        int i = 0;
+        int upperBound = dimensions & ~1;
+        for (; i < upperBound; i += 2) {
+            sum0 += vector[i] * quantized[i];
+            sum1 += vector[i + 1] * quantized[i + 1];
+        }
+        if (i < dimensions) {
+            sum0 += vector[i] * quantized[i];
+        }
+        return (sum0 + sum1) * scale;
+    }
+
+    @Override
+    public boolean isApproximate() {
+        return true;
+    }
+}
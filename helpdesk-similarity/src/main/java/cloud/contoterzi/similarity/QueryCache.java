@@ -0,0 +1,170 @@
+package cloud.contoterzi.similarity;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of the incoming questions: the key is the normalized question,
+ * the value its weighted vector and, once computed, its best match and its best entries.
+ * Every value records the index it was computed with, and is ignored once that index has been replaced.
+ * The map is guarded by its own lock, held only for the lookups and insertions, never while scoring.
+ */
+final class QueryCache {
+
+    private final int capacity;
+    private final Map<String, CachedQuery> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    QueryCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedQuery> eldest) {
+                return size() > QueryCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached question, counting a hit or a miss.
+     * @param key the normalized question
+     * @param index the current index
+     * @return the cached question, null if absent or computed with another index
+     */
+    CachedQuery get(String key, SegmentedIndex index) {
+        if (capacity <= 0)
+            return null;
+
+        CachedQuery cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached != null && cached.index == index) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(String key, CachedQuery query) {
+        if (capacity <= 0)
+            return;
+
+        synchronized (entries) {
+            entries.put(key, query);
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Immutable cached question.
+     */
+    static final class CachedQuery {
+        static final int NOT_COMPUTED = -2;
+        static final int NO_MATCH = -1;
+
+        private final SegmentedIndex index;
+        private final SparseVector vector;
+        private final int bestPosition;
+        private final double bestScore;
+        private final double floor;
+        private final int topK;
+        private final int[] topPositions;
+        private final double[] topScores;
+
+        CachedQuery(SegmentedIndex index, SparseVector vector) {
+            this(index, vector, NOT_COMPUTED, 0.0, 0.0, 0, null, null);
+        }
+
+        private CachedQuery(SegmentedIndex index, SparseVector vector, int bestPosition, double bestScore, double floor,
+                            int topK, int[] topPositions, double[] topScores) {
+            this.index = index;
+            this.vector = vector;
+            this.bestPosition = bestPosition;
+            this.bestScore = bestScore;
+            this.floor = floor;
+            this.topK = topK;
+            this.topPositions = topPositions;
+            this.topScores = topScores;
+        }
+
+        /**
+         * Returns a copy of this question holding its best match.
+         * @param position the position of the best match, {@link #NO_MATCH} if none
+         * @param score the score of the best match
+         * @param floor the floor the best match has been searched with
+         * @return the question with its best match
+         */
+        CachedQuery withBestMatch(int position, double score, double floor) {
+            return new CachedQuery(index, vector, position, score, floor, topK, topPositions, topScores);
+        }
+
+        /**
+         * Returns a copy of this question holding its best entries.
+         * @param k the number of entries searched
+         * @param positions the positions of the entries found, from the best; they may be fewer than {@code k}
+         * @param scores the scores of the entries found
+         * @return the question with its best entries
+         */
+        CachedQuery withTopK(int k, int[] positions, double[] scores) {
+            return new CachedQuery(index, vector, bestPosition, bestScore, floor, k, positions, scores);
+        }
+
+        /**
+         * Tells whether the best match has been searched with the given floor.
+         */
+        boolean hasBestMatch(double floor) {
+            return bestPosition != NOT_COMPUTED && this.floor == floor;
+        }
+
+        /**
+         * Tells whether the best {@code k} entries have been searched, or more.
+         */
+        boolean hasTopK(int k) {
+            return topPositions != null && topK >= k;
+        }
+
+        SparseVector vector() {
+            return vector;
+        }
+
+        int bestPosition() {
+            return bestPosition;
+        }
+
+        double bestScore() {
+            return bestScore;
+        }
+
+        /**
+         * Number of best entries held, at most the number searched.
+         */
+        int topCount() {
+            return topPositions == null ? 0 : topPositions.length;
+        }
+
+        int topPosition(int i) {
+            return topPositions[i];
+        }
+
+        double topScore(int i) {
+            return topScores[i];
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeDelta;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.similarity.RegexTokenizer;
+import cloud.contoterzi.helpdesk.core.similarity.SimilarityAlgorithm;
+import cloud.contoterzi.helpdesk.core.similarity.Tokenizer;
+import cloud.contoterzi.helpdesk.core.similarity.WordTokenizer;
+import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
+import cloud.contoterzi.helpdesk.core.util.SpiLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Service provider implementation in two stages: a cheap provider ({@code similarity.rerank.base}, default cosine)
+ * selects the best {@code similarity.rerank.depth} candidates (default 20) over the whole knowledge base, then a more
+ * expensive scorer ({@code similarity.rerank.scorer}) compares only these candidates with the question.
+ * The scorers are {@code alignment} (default, word-order-aware, see {@link AlignmentScorer}) and {@code cosine}.
+ * The score of a candidate is {@code weight * scorer + (1 - weight) * base} with {@code similarity.rerank.weight}
+ * (default 0.5), or the scorer alone when the base provider does not report scores; the best match compares
+ * this score with the threshold.
+ */
+public class RerankingSimilarityService implements SimilarityService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RerankingSimilarityService.class.getName());
+
+    static final String DEFAULT_BASE = "cosine";
+    static final String DEFAULT_SCORER = "alignment";
+    static final int DEFAULT_DEPTH = 20;
+    static final double DEFAULT_WEIGHT = 0.5;
+
+    private volatile SimilarityService base = new CosineSequenceMatcherService();
+    private volatile SimilarityAlgorithm scorer = new AlignmentScorer();
+    private volatile int depth = DEFAULT_DEPTH;
+    private volatile double weight = DEFAULT_WEIGHT;
+
+    @Override
+    public String id() {
+        return "rerank";
+    }
+
+    @Override
+    public void init(YamlConfig appConfig) {
+        final String baseType = appConfig.getString("similarity.rerank.base", DEFAULT_BASE);
+        if (id().equalsIgnoreCase(baseType))
+            throw new IllegalArgumentException("The first stage cannot be the rerank provider itself");
+        final String scorerType = appConfig.getString("similarity.rerank.scorer", DEFAULT_SCORER);
+        final int configuredDepth = appConfig.getInt("similarity.rerank.depth", DEFAULT_DEPTH);
+        final double configuredWeight = appConfig.getDouble("similarity.rerank.weight", DEFAULT_WEIGHT);
+        if (configuredDepth <= 0 || configuredWeight < 0.0 || configuredWeight > 1.0)
+            throw new IllegalArgumentException("Invalid rerank parameters: depth=" + configuredDepth
+                    + ", weight=" + configuredWeight);
+
+        final SimilarityService configuredBase = SpiLoader.loadByKey(SimilarityService.class, baseType);
+        configuredBase.init(appConfig);
+        final Tokenizer tokenizer = "regex".equalsIgnoreCase(appConfig.getString("similarity.tokenizer", "word"))
+                ? RegexTokenizer.INSTANCE
+                : WordTokenizer.INSTANCE;
+        setStages(configuredBase, scorer(scorerType, tokenizer), configuredDepth, configuredWeight);
+        LOGGER.info("Re-ranking similarity: best {} of {} re-scored with {}", depth, baseType, scorerType);
+    }
+
+    @Override
+    public void index(List<IKnowledge> kb) {
+        base.index(kb);
+    }
+
+    @Override
+    public boolean applyDelta(List<IKnowledge> updatedKb, KnowledgeDelta delta) {
+        return base.applyDelta(updatedKb, delta);
+    }
+
+    @Override
+    public KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold) {
+        if (question == null || question.trim().isEmpty() || kb == null || kb.isEmpty()) {
+            return new KnowledgeBestMatch(true, 0.0, null);
+        }
+
+        final List<ScoredKnowledge> reranked = rerank(question, kb, depth);
+        IKnowledge bestMatch = null;
+        double bestSimilarity = 0.0;
+        if (!reranked.isEmpty() && reranked.get(0).getScore() > 0.0) {
+            bestMatch = reranked.get(0).getEntry();
+            bestSimilarity = reranked.get(0).getScore();
+        }
+
+        boolean shouldInvokeLlm = bestSimilarity < threshold;
+        IKnowledge resultMatch = bestSimilarity >= threshold ? bestMatch : null;
+
+        return new KnowledgeBestMatch(shouldInvokeLlm, bestSimilarity, resultMatch);
+    }
+
+    @Override
+    public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+        final List<ScoredKnowledge> scored = scoredTopK(question, kb, topK);
+        final List<IKnowledge> result = new ArrayList<>(scored.size());
+        for (ScoredKnowledge entry : scored) {
+            result.add(entry.getEntry());
+        }
+        return result;
+    }
+
+    @Override
+    public List<ScoredKnowledge> scoredTopK(String question, List<IKnowledge> kb, int topK) {
+        if (question == null || question.trim().isEmpty() || kb == null || kb.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+
+        final List<ScoredKnowledge> reranked = rerank(question, kb, Math.max(depth, topK));
+        return reranked.size() > topK ? new ArrayList<>(reranked.subList(0, topK)) : reranked;
+    }
+
+    /**
+     * Sets both stages of the service, replacing the configured ones.
+     */
+    void setStages(SimilarityService base, SimilarityAlgorithm scorer, int depth, double weight) {
+        this.base = base;
+        this.scorer = scorer;
+        this.depth = depth;
+        this.weight = weight;
+    }
+
+    /**
+     * Scores the candidates of the first stage again.
+     * @return the candidates with their combined score, from the best; on equal scores, the first stage decides
+     */
+    private List<ScoredKnowledge> rerank(String question, List<IKnowledge> kb, int candidateCount) {
+        final SimilarityAlgorithm secondStage = scorer;
+        final double scorerWeight = weight;
+        final List<ScoredKnowledge> candidates = base.scoredTopK(question, kb, candidateCount);
+        final List<ScoredKnowledge> reranked = new ArrayList<>(candidates.size());
+        for (ScoredKnowledge candidate : candidates) {
+            final double rescored = secondStage.compute(question, candidate.getEntry().getQuestion());
+            final double score = Double.isNaN(candidate.getScore())
+                    ? rescored
+                    : scorerWeight * rescored + (1.0 - scorerWeight) * candidate.getScore();
+            reranked.add(new ScoredKnowledge(candidate.getEntry(), score));
+        }
+        reranked.sort(Comparator.comparingDouble(ScoredKnowledge::getScore).reversed());
+        return reranked;
+    }
+
+    /**
+     * Creates the scorer of the second stage.
+     * @param type the value of {@code similarity.rerank.scorer}
+     * @param tokenizer the tokenizer splitting the texts into words
+     */
+    static SimilarityAlgorithm scorer(String type, Tokenizer tokenizer) {
+        switch (type.trim().toLowerCase(Locale.ROOT)) {
+            case "alignment":
+                return new AlignmentScorer(tokenizer);
+            case "cosine":
+                return new SequenceMatcherJava(tokenizer);
+            default:
+                throw new IllegalArgumentException("similarity.rerank.scorer must be alignment or cosine: " + type);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package cloud.contoterzi.similarity;
+
+import java.util.Arrays;
+
+/**
+ * Reusable per-thread accumulator of partial dot products, indexed by knowledge base position.
+ * Only the touched positions are tracked, so resetting it costs as much as the candidates found.
+ */
+final class ScoreAccumulator {
+
+    private static final ThreadLocal<ScoreAccumulator> LOCAL = ThreadLocal.withInitial(ScoreAccumulator::new);
+
+    private double[] scores = new double[0];
+    private int[] touched = new int[16];
+    private int touchedCount;
+
+    /**
+     * Returns the accumulator of the current thread, emptied and sized for the given number of entries.
+     * @param size the number of entries of the index
+     * @return the accumulator of the current thread
+     */
+    static ScoreAccumulator forSize(int size) {
+        ScoreAccumulator accumulator = LOCAL.get();
+        accumulator.reset(size);
+        return accumulator;
+    }
+
+    private void reset(int size) {
+        if (scores.length < size) {
+            scores = new double[size];
+        } else {
+            for (int i = 0; i < touchedCount; i++) {
+                scores[touched[i]] = 0.0;
+            }
+        }
+        touchedCount = 0;
+    }
+
+    void add(int position, double value) {
+        if (scores[position] == 0.0) {
+            if (touchedCount == touched.length)
+                touched = Arrays.copyOf(touched, touchedCount * 2);
+            touched[touchedCount++] = position;
+        }
+        scores[position] += value;
+    }
+
+    /**
+     * Number of positions which received at least one contribution.
+     */
+    int candidateCount() {
+        return touchedCount;
+    }
+
+    int candidate(int i) {
+        return touched[i];
+    }
+
+    double score(int position) {
+        return scores[position];
+    }
+}
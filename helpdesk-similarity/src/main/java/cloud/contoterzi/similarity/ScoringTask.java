@@ -0,0 +1,102 @@
+package cloud.contoterzi.similarity;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scores a range of knowledge base positions against a question, keeping the best {@code k} of them.
+ * Ranges larger than the chunk size are split in two halves scored as fork-join subtasks,
+ * whose best positions are then merged; each chunk only walks the part of the posting lists
+ * falling into its range. The tombstoned positions of a {@link SegmentedIndex} are skipped.
+ */
+final class ScoringTask extends RecursiveTask<TopKHeap> {
+
+    private final KnowledgeIndex index;
+    private final SparseVector question;
+    private final int k;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+    private final double floor;
+    private final boolean[] removed;
+
+    ScoringTask(KnowledgeIndex index, SparseVector question, int k, int from, int to, int chunkSize, double floor) {
+        this(index, question, k, from, to, chunkSize, floor, null);
+    }
+
+    /**
+     * @param removed the tombstones of the positions, see {@link SegmentedIndex#tombstones()}; null if none
+     */
+    ScoringTask(KnowledgeIndex index, SparseVector question, int k, int from, int to, int chunkSize, double floor,
+                boolean[] removed) {
+        this.index = index;
+        this.question = question;
+        this.k = k;
+        this.from = from;
+        this.to = to;
+        this.chunkSize = chunkSize;
+        this.floor = floor;
+        this.removed = removed;
+    }
+
+    @Override
+    protected TopKHeap compute() {
+        if (to - from <= chunkSize)
+            return score(index, question, k, from, to, floor, removed);
+
+        int middle = (from + to) >>> 1;
+        ScoringTask left = new ScoringTask(index, question, k, from, middle, chunkSize, floor, removed);
+        ScoringTask right = new ScoringTask(index, question, k, middle, to, chunkSize, floor, removed);
+        invokeAll(left, right);
+
+        TopKHeap leftBest = left.join();
+        TopKHeap rightBest = right.join();
+        TopKHeap merged = new TopKHeap(Math.min(k, leftBest.size() + rightBest.size()));
+        merged.offerAll(leftBest);
+        merged.offerAll(rightBest);
+        return merged;
+    }
+
+    /**
+     * Scores sequentially the positions of a range sharing at least one word with the question.
+     * The best match alone ({@code k = 1}) is searched with {@link MaxScoreSearch}.
+     * @param index the knowledge base index
+     * @param question the weighted vector of the question
+     * @param k the number of positions to keep
+     * @param from the first position of the range, inclusive
+     * @param to the last position of the range, exclusive
+     * @param floor the score the best match has to reach to be of interest, see {@link MaxScoreSearch}; ignored for {@code k > 1}
+     * @return the best {@code k} positions of the range with their cosine similarity
+     */
+    static TopKHeap score(KnowledgeIndex index, SparseVector question, int k, int from, int to, double floor) {
+        return score(index, question, k, from, to, floor, null);
+    }
+
+    /**
+     * Scores sequentially the positions of a range, skipping the tombstoned ones.
+     * @param removed the tombstones of the positions, see {@link SegmentedIndex#tombstones()}; null if none
+     * @see #score(KnowledgeIndex, SparseVector, int, int, int, double)
+     */
+    static TopKHeap score(KnowledgeIndex index, SparseVector question, int k, int from, int to, double floor,
+                          boolean[] removed) {
+        if (k == 1)
+            return MaxScoreSearch.bestMatch(index, question, from, to, floor, removed);
+
+        ScoreAccumulator candidates = ScoreAccumulator.forSize(index.size());
+        index.accumulateDotProducts(question, candidates, from, to);
+
+        TopKHeap best = new TopKHeap(Math.min(k, candidates.candidateCount()));
+        for (int i = 0; i < candidates.candidateCount(); i++) {
+            int position = candidates.candidate(i);
+            if (MaxScoreSearch.isRemoved(removed, position))
+                continue;
+            best.offer(position, cosine(candidates.score(position), question.norm(), index.norm(position)));
+        }
+        return best;
+    }
+
+    static double cosine(double dotProduct, double questionNorm, double entryNorm) {
+        if (dotProduct == 0.0 || questionNorm == 0.0 || entryNorm == 0.0)
+            return 0.0;
+        return dotProduct / (questionNorm * entryNorm);
+    }
+}
@@ -0,0 +1,215 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeDelta;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of a knowledge base as a base {@link KnowledgeIndex}, built once, plus a small tail segment
+ * indexing the entries added or updated since; the base entries removed or updated since are tombstoned.
+ * A delta creates a new instance sharing the base (copy-on-write): only the tail is indexed again and the
+ * tombstones copied, so a request keeps scoring the consistent segments it started with.
+ * The knowledge base instances of the earlier generations are remembered weakly, so that a caller still holding
+ * one of them is served instead of triggering a full re-index.
+ * The positions of the tail entries follow those of the base: {@code base.size() + position in the tail}.
+ */
+final class SegmentedIndex {
+
+    private final List<IKnowledge> source;
+    /**
+     * The knowledge bases of the generations since the base was built, as long as they are referenced elsewhere.
+     */
+    private final List<WeakReference<List<IKnowledge>>> previousSources;
+    private final KnowledgeIndex base;
+    private final MinHashLsh lsh;
+    private final Map<Integer, Integer> basePositions;
+    private final KnowledgeIndex tail;
+    private final boolean[] removed;
+    private final int removedCount;
+
+    private SegmentedIndex(List<IKnowledge> source, List<WeakReference<List<IKnowledge>>> previousSources,
+                           KnowledgeIndex base,
+                           MinHashLsh lsh, Map<Integer, Integer> basePositions, KnowledgeIndex tail,
+                           boolean[] removed, int removedCount) {
+        this.source = source;
+        this.previousSources = previousSources;
+        this.base = base;
+        this.lsh = lsh;
+        this.basePositions = basePositions;
+        this.tail = tail;
+        this.removed = removed;
+        this.removedCount = removedCount;
+    }
+
+    /**
+     * Wraps the index of a whole knowledge base, without tail nor tombstones.
+     * @param kb the knowledge base
+     * @param base the index of the knowledge base
+     * @param lsh the LSH buckets of the knowledge base, null if disabled
+     * @return the segmented index
+     */
+    static SegmentedIndex of(List<IKnowledge> kb, KnowledgeIndex base, MinHashLsh lsh) {
+        return of(kb, base, lsh, List.of());
+    }
+
+    /**
+     * Wraps the index of a whole knowledge base re-indexed after a delta, still serving the earlier generations.
+     * @param kb the knowledge base
+     * @param base the index of the knowledge base
+     * @param lsh the LSH buckets of the knowledge base, null if disabled
+     * @param previousSources the knowledge bases of the earlier generations, see {@link #generations()}
+     * @return the segmented index
+     */
+    static SegmentedIndex of(List<IKnowledge> kb, KnowledgeIndex base, MinHashLsh lsh,
+                             List<WeakReference<List<IKnowledge>>> previousSources) {
+        return new SegmentedIndex(kb, previousSources, base, lsh, null, null, null, 0);
+    }
+
+    /**
+     * Applies a delta: the base entries with an updated or removed id are tombstoned, and the tail
+     * is indexed again with the new and updated entries.
+     * @param updatedKb the knowledge base with the delta applied
+     * @param delta the delta
+     * @param matcher the matcher which built the base
+     * @param weighting the weighting of the new tail
+     * @return the segmented index of the updated knowledge base
+     */
+    SegmentedIndex withDelta(List<IKnowledge> updatedKb, KnowledgeDelta delta, SequenceMatcherJava matcher,
+                             TermWeighting weighting) {
+        Map<Integer, Integer> positions = basePositions != null ? basePositions : positionsById(base);
+        boolean[] nextRemoved = removed != null ? Arrays.copyOf(removed, removed.length) : new boolean[base.size()];
+        int nextRemovedCount = removedCount;
+
+        Map<Integer, IKnowledge> tailEntries = new LinkedHashMap<>();
+        for (int position = 0; tail != null && position < tail.size(); position++) {
+            IKnowledge entry = tail.entry(position);
+            if (!delta.affects(entry.getId()))
+                tailEntries.put(entry.getId(), entry);
+        }
+        for (IKnowledge entry : delta.getUpserts()) {
+            tailEntries.put(entry.getId(), entry);
+        }
+
+        for (IKnowledge entry : delta.getUpserts()) {
+            nextRemovedCount += tombstone(positions.get(entry.getId()), nextRemoved);
+        }
+        for (int id : delta.getRemovedIds()) {
+            nextRemovedCount += tombstone(positions.get(id), nextRemoved);
+        }
+
+        KnowledgeIndex nextTail = tailEntries.isEmpty()
+                ? null
+                : KnowledgeIndex.build(new ArrayList<>(tailEntries.values()), matcher, weighting);
+        return new SegmentedIndex(updatedKb, generations(), base, lsh, positions, nextTail, nextRemoved,
+                nextRemovedCount);
+    }
+
+    /**
+     * The knowledge bases served by this index and still referenced elsewhere, to be served by the next generation.
+     */
+    List<WeakReference<List<IKnowledge>>> generations() {
+        final List<WeakReference<List<IKnowledge>>> sources = new ArrayList<>(previousSources.size() + 1);
+        for (WeakReference<List<IKnowledge>> previous : previousSources) {
+            if (previous.get() != null)
+                sources.add(previous);
+        }
+        sources.add(new WeakReference<>(source));
+        return sources;
+    }
+
+    /**
+     * Tells whether this index serves the given knowledge base instance: the one it has been built from or,
+     * after deltas, any earlier generation still used by a caller, e.g. a request started before a delta.
+     * @param kb the knowledge base to check
+     * @return true if the index can serve the knowledge base
+     */
+    boolean serves(List<IKnowledge> kb) {
+        if (source == kb)
+            return true;
+        for (WeakReference<List<IKnowledge>> previous : previousSources) {
+            if (previous.get() == kb)
+                return true;
+        }
+        return false;
+    }
+
+    KnowledgeIndex base() {
+        return base;
+    }
+
+    /**
+     * The index of the entries added or updated since the base was built, null if there are none.
+     */
+    KnowledgeIndex tail() {
+        return tail;
+    }
+
+    MinHashLsh lsh() {
+        return lsh;
+    }
+
+    int removedCount() {
+        return removedCount;
+    }
+
+    /**
+     * Number of changes since the base was built: the tail entries and the tombstones.
+     */
+    int pendingChanges() {
+        return (tail == null ? 0 : tail.size()) + removedCount;
+    }
+
+    /**
+     * The tombstones of the base positions, null without any; shared, must not be modified.
+     */
+    boolean[] tombstones() {
+        return removed;
+    }
+
+    /**
+     * Tells whether the entry at a position has been removed or superseded by a tail entry.
+     */
+    boolean isRemoved(int position) {
+        return removed != null && position < removed.length && removed[position];
+    }
+
+    /**
+     * Number of positions of the base and of the tail, including the removed ones.
+     */
+    int positionCount() {
+        return base.size() + (tail == null ? 0 : tail.size());
+    }
+
+    /**
+     * Number of live entries.
+     */
+    int size() {
+        return positionCount() - removedCount;
+    }
+
+    IKnowledge entry(int position) {
+        return position < base.size() ? base.entry(position) : tail.entry(position - base.size());
+    }
+
+    private static int tombstone(Integer position, boolean[] removed) {
+        if (position == null || removed[position])
+            return 0;
+        removed[position] = true;
+        return 1;
+    }
+
+    private static Map<Integer, Integer> positionsById(KnowledgeIndex index) {
+        Map<Integer, Integer> positions = new HashMap<>(index.size() * 2);
+        for (int position = 0; position < index.size(); position++) {
+            positions.putIfAbsent(index.entry(position).getId(), position);
+        }
+        return positions;
+    }
+}
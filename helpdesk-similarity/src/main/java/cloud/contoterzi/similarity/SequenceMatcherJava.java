@@ -1,13 +1,29 @@
 package cloud.contoterzi.similarity;
 
 import cloud.contoterzi.helpdesk.core.similarity.SimilarityAlgorithm;
+import cloud.contoterzi.helpdesk.core.similarity.Tokenizer;
+import cloud.contoterzi.helpdesk.core.similarity.WordTokenizer;
 
-import java.util.*;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
 public class SequenceMatcherJava implements SimilarityAlgorithm {
 
-    private static final Pattern WORD_PATTERN = Pattern.compile("\\b\\w+\\b");
+    private static final ThreadLocal<TermIdCollector> COLLECTOR = ThreadLocal.withInitial(TermIdCollector::new);
+
+    private final Tokenizer tokenizer;
+
+    public SequenceMatcherJava() {
+        this(WordTokenizer.INSTANCE);
+    }
+
+    public SequenceMatcherJava(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    @Override
+    public Tokenizer tokenizer() {
+        return tokenizer;
+    }
 
     @Override
     public double compute(String a, String b) {
@@ -15,56 +31,93 @@ public class SequenceMatcherJava implements SimilarityAlgorithm {
             return 0.0;
         }
 
-        Map<String, Integer> vectorA = createWordVector(a.toLowerCase());
-        Map<String, Integer> vectorB = createWordVector(b.toLowerCase());
+        TermDictionary dictionary = new TermDictionary();
+        return cosineSimilarity(vectorize(a, dictionary), vectorize(b, dictionary));
+    }
+
+    /**
+     * Tokenizes the text into its word-frequency vector, adding the new words to the dictionary.
+     * @param text the text to tokenize, may be null
+     * @param dictionary the dictionary assigning the word ids
+     * @return the word vector of the text
+     */
+    SparseVector vectorize(String text, TermDictionary dictionary) {
+        return createWordVector(text, dictionary, true);
+    }
 
-        return cosineSimilarity(vectorA, vectorB);
+    /**
+     * Tokenizes the text into its word-frequency vector without modifying the dictionary.
+     * The words missing from the dictionary get ids beyond its size: they match no indexed word
+     * but still count in the norm of the vector.
+     * @param text the text to tokenize, may be null
+     * @param dictionary the dictionary assigning the word ids
+     * @return the word vector of the text
+     */
+    SparseVector vectorizeQuery(String text, TermDictionary dictionary) {
+        return createWordVector(text, dictionary, false);
     }
 
-    private Map<String, Integer> createWordVector(String text) {
-        Map<String, Integer> wordCount = new HashMap<>();
-        var matcher = WORD_PATTERN.matcher(text);
-        
-        while (matcher.find()) {
-            String word = matcher.group();
-            wordCount.merge(word, 1, Integer::sum);
+    private SparseVector createWordVector(String text, TermDictionary dictionary, boolean extend) {
+        if (text == null || text.trim().isEmpty()) {
+            return SparseVector.EMPTY;
+        }
+
+        TermIdCollector collector = COLLECTOR.get();
+        collector.reset(dictionary, extend);
+        try {
+            tokenizer.tokenize(text, collector);
+            return SparseVector.ofTermIds(collector.ids, collector.count);
+        } finally {
+            collector.dictionary = null;
         }
-        
-        return wordCount;
     }
 
-    private double cosineSimilarity(Map<String, Integer> vectorA, Map<String, Integer> vectorB) {
+    /**
+     * Cosine similarity between two word vectors, using their precomputed norms.
+     * @param vectorA the first vector
+     * @param vectorB the second vector
+     * @return the cosine similarity, 0.0 when the vectors share no words
+     */
+    static double cosineSimilarity(SparseVector vectorA, SparseVector vectorB) {
         if (vectorA.isEmpty() || vectorB.isEmpty()) {
             return 0.0;
         }
 
-        Set<String> commonWords = new HashSet<>(vectorA.keySet());
-        commonWords.retainAll(vectorB.keySet());
+        double dotProduct = vectorA.dot(vectorB);
 
-        if (commonWords.isEmpty()) {
+        if (dotProduct == 0.0 || vectorA.norm() == 0.0 || vectorB.norm() == 0.0) {
             return 0.0;
         }
 
-        double dotProduct = 0.0;
-        double magnitudeA = 0.0;
-        double magnitudeB = 0.0;
-
-        Set<String> allWords = new HashSet<>(vectorA.keySet());
-        allWords.addAll(vectorB.keySet());
-
-        for (String word : allWords) {
-            int countA = vectorA.getOrDefault(word, 0);
-            int countB = vectorB.getOrDefault(word, 0);
+        return dotProduct / (vectorA.norm() * vectorB.norm());
+    }
 
-            dotProduct += countA * countB;
-            magnitudeA += countA * countA;
-            magnitudeB += countB * countB;
+    /**
+     * Reusable receiver of the tokens, translating them into term ids without creating Strings.
+     */
+    private static final class TermIdCollector implements Tokenizer.TokenSink {
+        private final TermDictionary unknownWords = new TermDictionary();
+        private TermDictionary dictionary;
+        private boolean extend;
+        private int[] ids = new int[16];
+        private int count;
+
+        void reset(TermDictionary dictionary, boolean extend) {
+            this.dictionary = dictionary;
+            this.extend = extend;
+            this.count = 0;
+            if (unknownWords.size() > 0)
+                unknownWords.clear();
         }
 
-        if (magnitudeA == 0.0 || magnitudeB == 0.0) {
-            return 0.0;
+        @Override
+        public void accept(char[] buffer, int length) {
+            int id = extend ? dictionary.intern(buffer, length) : dictionary.idOf(buffer, length);
+            if (id == TermDictionary.NOT_FOUND)
+                id = dictionary.size() + unknownWords.intern(buffer, length);
+            if (count == ids.length)
+                ids = Arrays.copyOf(ids, count * 2);
+            ids[count++] = id;
         }
-
-        return dotProduct / (Math.sqrt(magnitudeA) * Math.sqrt(magnitudeB));
     }
-}
\ No newline at end of file
+}
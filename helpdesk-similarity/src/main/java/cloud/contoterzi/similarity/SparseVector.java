@@ -0,0 +1,121 @@
+package cloud.contoterzi.similarity;
+
+import java.util.Arrays;
+
+/**
+ * Immutable sparse vector: term ids sorted in ascending order, with their weights
+ * and the precomputed euclidean norm. Dot products are computed by merge-join on the ids.
+ */
+final class SparseVector {
+
+    static final SparseVector EMPTY = new SparseVector(new int[0], new float[0]);
+
+    private final int[] ids;
+    private final float[] weights;
+    private final double norm;
+
+    /**
+     * Creates a vector from ids already sorted in ascending order and without duplicates.
+     * @param ids the sorted term ids
+     * @param weights the weight of every id
+     */
+    SparseVector(int[] ids, float[] weights) {
+        this.ids = ids;
+        this.weights = weights;
+        this.norm = norm(weights, 0, weights.length);
+    }
+
+    /**
+     * Creates the term-frequency vector of a sequence of term ids: every id is weighted
+     * by its number of occurrences.
+     * @param termIds the term ids in order of appearance, sorted in place
+     * @param count the number of valid term ids
+     * @return the term-frequency vector
+     */
+    static SparseVector ofTermIds(int[] termIds, int count) {
+        if (count == 0)
+            return EMPTY;
+
+        Arrays.sort(termIds, 0, count);
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (termIds[i] != termIds[i - 1])
+                distinct++;
+        }
+
+        int[] ids = new int[distinct];
+        float[] weights = new float[distinct];
+        int last = 0;
+        ids[0] = termIds[0];
+        weights[0] = 1f;
+        for (int i = 1; i < count; i++) {
+            if (termIds[i] == ids[last]) {
+                weights[last]++;
+            } else {
+                last++;
+                ids[last] = termIds[i];
+                weights[last] = 1f;
+            }
+        }
+        return new SparseVector(ids, weights);
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    int id(int i) {
+        return ids[i];
+    }
+
+    float weight(int i) {
+        return weights[i];
+    }
+
+    double norm() {
+        return norm;
+    }
+
+    boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    /**
+     * Dot product with another vector.
+     * @param other the other vector
+     * @return the dot product, 0.0 when the vectors have no common ids
+     */
+    double dot(SparseVector other) {
+        return dot(ids, weights, 0, ids.length, other.ids, other.weights, 0, other.ids.length);
+    }
+
+    /**
+     * Merge-join dot product between two slices of sorted ids and their weights.
+     */
+    static double dot(int[] idsA, float[] weightsA, int fromA, int toA,
+                      int[] idsB, float[] weightsB, int fromB, int toB) {
+        double dotProduct = 0.0;
+        int a = fromA;
+        int b = fromB;
+        while (a < toA && b < toB) {
+            int idA = idsA[a];
+            int idB = idsB[b];
+            if (idA == idB) {
+                dotProduct += (double) weightsA[a++] * weightsB[b++];
+            } else if (idA < idB) {
+                a++;
+            } else {
+                b++;
+            }
+        }
+        return dotProduct;
+    }
+
+    static double norm(float[] weights, int from, int to) {
+        double magnitude = 0.0;
+        for (int i = from; i < to; i++) {
+            magnitude += (double) weights[i] * weights[i];
+        }
+        return Math.sqrt(magnitude);
+    }
+}
@@ -0,0 +1,177 @@
+package cloud.contoterzi.similarity;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary interning the terms of a knowledge base into dense int ids (0, 1, 2, ...).
+ * It is an open-addressing hash table over the term characters, so that terms can be looked up
+ * straight from a tokenizer buffer, without creating a String. It is filled while an index
+ * is built and only read afterwards.
+ */
+final class TermDictionary {
+
+    static final int NOT_FOUND = -1;
+
+    private static final int EMPTY_SLOT = -1;
+
+    private String[] terms;
+    private int[] hashes;
+    private int[] slots;
+    private int size;
+
+    TermDictionary() {
+        this(16);
+    }
+
+    TermDictionary(int expectedTerms) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedTerms * 2 - 1)) << 1;
+        this.terms = new String[capacity / 2];
+        this.hashes = new int[capacity / 2];
+        this.slots = new int[capacity];
+        Arrays.fill(slots, EMPTY_SLOT);
+    }
+
+    /**
+     * Returns the id of the term, adding it to the dictionary if absent.
+     * @param term the term to intern
+     * @return the id of the term
+     */
+    int intern(CharSequence term) {
+        int hash = hash(term);
+        int slot = find(term, hash);
+        if (slots[slot] != EMPTY_SLOT)
+            return slots[slot];
+
+        if (size == terms.length) {
+            grow();
+            slot = find(term, hash);
+        }
+        int id = size++;
+        terms[id] = term.toString();
+        hashes[id] = hash;
+        slots[slot] = id;
+        return id;
+    }
+
+    /**
+     * Returns the id of the term held in a buffer, adding it to the dictionary if absent.
+     * @param chars the buffer holding the term
+     * @param length the length of the term
+     * @return the id of the term
+     */
+    int intern(char[] chars, int length) {
+        int hash = hash(chars, length);
+        int slot = find(chars, length, hash);
+        if (slots[slot] != EMPTY_SLOT)
+            return slots[slot];
+
+        if (size == terms.length) {
+            grow();
+            slot = find(chars, length, hash);
+        }
+        int id = size++;
+        terms[id] = new String(chars, 0, length);
+        hashes[id] = hash;
+        slots[slot] = id;
+        return id;
+    }
+
+    /**
+     * Returns the id of the term.
+     * @param term the term to look up
+     * @return the id of the term, {@link #NOT_FOUND} if the term is not in the dictionary
+     */
+    int idOf(CharSequence term) {
+        return slots[find(term, hash(term))];
+    }
+
+    /**
+     * Returns the id of the term held in a buffer.
+     * @param chars the buffer holding the term
+     * @param length the length of the term
+     * @return the id of the term, {@link #NOT_FOUND} if the term is not in the dictionary
+     */
+    int idOf(char[] chars, int length) {
+        return slots[find(chars, length, hash(chars, length))];
+    }
+
+    /**
+     * Removes all the terms, keeping the allocated capacity.
+     */
+    void clear() {
+        Arrays.fill(terms, 0, size, null);
+        Arrays.fill(slots, EMPTY_SLOT);
+        size = 0;
+    }
+
+    String term(int id) {
+        return terms[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int find(CharSequence term, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int id = slots[slot];
+            if (id == EMPTY_SLOT || (hashes[id] == hash && terms[id].contentEquals(term)))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int find(char[] chars, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int id = slots[slot];
+            if (id == EMPTY_SLOT || (hashes[id] == hash && contentEquals(terms[id], chars, length)))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static boolean contentEquals(String term, char[] chars, int length) {
+        if (term.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != chars[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        terms = Arrays.copyOf(terms, terms.length * 2);
+        hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY_SLOT);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    private static int hash(CharSequence term) {
+        int h = 0;
+        for (int i = 0; i < term.length(); i++) {
+            h = 31 * h + term.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(char[] chars, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + chars[i];
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,67 @@
+package cloud.contoterzi.similarity;
+
+/**
+ * Weighting of the word frequencies of the indexed questions and of the incoming questions.
+ * A new instance is created for every {@link KnowledgeIndex}: it is first fitted on the statistics
+ * of the knowledge base, then only read while scoring.
+ */
+interface TermWeighting {
+
+    /**
+     * Receives the statistics of the knowledge base being indexed.
+     * @param documentFrequencies number of questions containing every term id
+     * @param documentCount number of questions of the knowledge base
+     * @param averageLength average number of words of a question
+     */
+    default void fit(int[] documentFrequencies, int documentCount, double averageLength) {
+    }
+
+    /**
+     * Weight of a word of an indexed question.
+     * @param termId the id of the word
+     * @param frequency the number of occurrences of the word in the question
+     * @param length the number of words of the question
+     * @return the weight of the word
+     */
+    float documentWeight(int termId, float frequency, int length);
+
+    /**
+     * Weights the word-frequency vector of an incoming question.
+     * @param frequencies the word-frequency vector, possibly holding words unknown to the knowledge base
+     * @return the weighted vector
+     */
+    SparseVector queryVector(SparseVector frequencies);
+
+    /**
+     * Tells whether the weights depend on the statistics of the whole knowledge base, in which case
+     * an index cannot be updated incrementally without changing the weights of the unchanged entries.
+     * @return true if the weighting is fitted on the knowledge base
+     */
+    default boolean isCorpusDependent() {
+        return false;
+    }
+
+    /**
+     * Describes the weighting and its parameters, so that indexes built with different weightings are told apart.
+     * @return the description of the weighting
+     */
+    default String describe() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Plain term-frequency weighting: every occurrence of a word counts the same.
+     */
+    final class TermFrequency implements TermWeighting {
+
+        @Override
+        public float documentWeight(int termId, float frequency, int length) {
+            return frequency;
+        }
+
+        @Override
+        public SparseVector queryVector(SparseVector frequencies) {
+            return frequencies;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package cloud.contoterzi.similarity;
+
+/**
+ * Bounded min-heap keeping the {@code k} best (position, score) pairs offered to it, in O(n log k).
+ * A pair is better than another if its score is higher or, at equal scores, if its position is lower,
+ * so that ties go to the first entry of the knowledge base as in a linear scan.
+ * The root of the heap is the worst pair kept, the one evicted by a better offer.
+ */
+final class TopKHeap {
+
+    private final int[] positions;
+    private final double[] scores;
+    private int size;
+
+    TopKHeap(int capacity) {
+        this.positions = new int[capacity];
+        this.scores = new double[capacity];
+    }
+
+    /**
+     * Offers a pair to the heap, which keeps it if it is among the best {@code k} seen so far.
+     * @param position the knowledge base position
+     * @param score the score of the position
+     */
+    void offer(int position, double score) {
+        if (size < positions.length) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!isWorse(position, score, positions[parent], scores[parent]))
+                    break;
+                positions[i] = positions[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            positions[i] = position;
+            scores[i] = score;
+        } else if (size > 0 && isWorse(positions[0], scores[0], position, score)) {
+            siftDown(position, score);
+        }
+    }
+
+    /**
+     * Offers all the pairs of another heap.
+     * @param other the heap to merge into this one, left unchanged
+     */
+    void offerAll(TopKHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.positions[i], other.scores[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Position of the i-th pair, in heap order: the pair 0 is the worst one kept.
+     */
+    int position(int i) {
+        return positions[i];
+    }
+
+    double score(int i) {
+        return scores[i];
+    }
+
+    /**
+     * Empties the heap, writing its pairs from the best to the worst.
+     * @param sortedPositions receives the positions, at least {@link #size()} long
+     * @param sortedScores receives the scores, at least {@link #size()} long
+     * @return the number of pairs written
+     */
+    int drainSorted(int[] sortedPositions, double[] sortedScores) {
+        int count = size;
+        for (int i = count - 1; i >= 0; i--) {
+            sortedPositions[i] = positions[0];
+            sortedScores[i] = scores[0];
+            size--;
+            if (size > 0)
+                siftDown(positions[size], scores[size]);
+        }
+        return count;
+    }
+
+    private void siftDown(int position, double score) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && isWorse(positions[right], scores[right], positions[child], scores[child]))
+                child = right;
+            if (!isWorse(positions[child], scores[child], position, score))
+                break;
+            positions[i] = positions[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        positions[i] = position;
+        scores[i] = score;
+    }
+
+    private static boolean isWorse(int positionA, double scoreA, int positionB, double scoreB) {
+        return scoreA < scoreB || (scoreA == scoreB && positionA > positionB);
+    }
+}
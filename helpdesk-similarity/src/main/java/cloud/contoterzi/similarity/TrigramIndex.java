@@ -0,0 +1,235 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.util.TextNormalizer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable index of the character trigrams of a knowledge base, tolerant to typos: "pasword resset"
+ * still shares most of its trigrams with "password reset".
+ * Every word of a normalized question is padded with two leading spaces and a trailing one
+ * ({@code "  job "} gives {@code "  j"}, {@code " jo"}, {@code "job"} and {@code "ob "}) and the distinct
+ * trigrams are interned in a {@link TermDictionary}, straight from a char buffer.
+ * The positions of the entries containing each trigram are stored flat (the posting list of trigram
+ * {@code t} between {@code postingOffsets[t]} and {@code postingOffsets[t + 1]}), so that a request
+ * only counts the trigrams shared with the entries found in the posting lists of its own trigrams.
+ */
+final class TrigramIndex {
+
+    private static final ThreadLocal<TrigramCollector> COLLECTOR = ThreadLocal.withInitial(TrigramCollector::new);
+    private static final ThreadLocal<int[]> OVERLAPS = ThreadLocal.withInitial(() -> new int[0]);
+
+    /**
+     * Similarity of two sets of trigrams, from the size of their intersection.
+     */
+    enum Measure {
+        /**
+         * {@code 2 |A ∩ B| / (|A| + |B|)}
+         */
+        DICE {
+            @Override
+            double score(int overlap, int sizeA, int sizeB) {
+                return 2.0 * overlap / (sizeA + sizeB);
+            }
+        },
+        /**
+         * {@code |A ∩ B| / |A ∪ B|}
+         */
+        JACCARD {
+            @Override
+            double score(int overlap, int sizeA, int sizeB) {
+                return (double) overlap / (sizeA + sizeB - overlap);
+            }
+        };
+
+        abstract double score(int overlap, int sizeA, int sizeB);
+    }
+
+    private final List<IKnowledge> source;
+    private final IKnowledge[] entries;
+    private final TermDictionary dictionary;
+    private final int[] trigramCounts;
+    private final int[] postingOffsets;
+    private final int[] postings;
+
+    private TrigramIndex(List<IKnowledge> source, IKnowledge[] entries, TermDictionary dictionary,
+                         int[] trigramCounts, int[] postingOffsets, int[] postings) {
+        this.source = source;
+        this.entries = entries;
+        this.dictionary = dictionary;
+        this.trigramCounts = trigramCounts;
+        this.postingOffsets = postingOffsets;
+        this.postings = postings;
+    }
+
+    /**
+     * Extracts the trigrams of all the questions of the knowledge base.
+     * @param kb the knowledge base to index
+     * @return the index of the knowledge base
+     */
+    static TrigramIndex build(List<IKnowledge> kb) {
+        IKnowledge[] entries = kb.toArray(new IKnowledge[0]);
+        TermDictionary dictionary = new TermDictionary();
+        int[] offsets = new int[entries.length + 1];
+        int[] trigramIds = new int[Math.max(16, entries.length * 16)];
+
+        TrigramCollector collector = COLLECTOR.get();
+        for (int i = 0; i < entries.length; i++) {
+            int count = collector.collect(entries[i].getQuestion(), dictionary, true);
+            int offset = offsets[i];
+            if (offset + count > trigramIds.length)
+                trigramIds = Arrays.copyOf(trigramIds, Math.max(trigramIds.length * 2, offset + count));
+            System.arraycopy(collector.ids, 0, trigramIds, offset, count);
+            offsets[i + 1] = offset + count;
+        }
+
+        // Counting sort of the (trigram, entry) pairs by trigram: the entries stay in ascending order
+        int[] postingOffsets = new int[dictionary.size() + 1];
+        for (int j = 0; j < offsets[entries.length]; j++) {
+            postingOffsets[trigramIds[j] + 1]++;
+        }
+        for (int t = 0; t < dictionary.size(); t++) {
+            postingOffsets[t + 1] += postingOffsets[t];
+        }
+        int[] postings = new int[offsets[entries.length]];
+        int[] next = Arrays.copyOf(postingOffsets, dictionary.size());
+        int[] trigramCounts = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            trigramCounts[i] = offsets[i + 1] - offsets[i];
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                postings[next[trigramIds[j]]++] = i;
+            }
+        }
+        return new TrigramIndex(kb, entries, dictionary, trigramCounts, postingOffsets, postings);
+    }
+
+    /**
+     * Finds the entries sharing the most trigrams with a question.
+     * @param question the question
+     * @param k the number of entries to return
+     * @param measure the similarity of the sets of trigrams
+     * @return the best {@code k} entries sharing at least one trigram with the question, with their similarity
+     */
+    TopKHeap search(String question, int k, Measure measure) {
+        TrigramCollector collector = COLLECTOR.get();
+        int queryCount = collector.collect(question, dictionary, false);
+        if (queryCount == 0 || k <= 0)
+            return new TopKHeap(0);
+
+        int[] overlaps = OVERLAPS.get();
+        if (overlaps.length < entries.length) {
+            overlaps = new int[entries.length];
+            OVERLAPS.set(overlaps);
+        }
+
+        // The per-thread counters are only reset for the touched entries, not over the whole knowledge base
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        for (int j = 0; j < queryCount; j++) {
+            int trigram = collector.ids[j];
+            if (trigram >= dictionary.size())
+                continue;
+            for (int p = postingOffsets[trigram]; p < postingOffsets[trigram + 1]; p++) {
+                int position = postings[p];
+                if (overlaps[position]++ == 0) {
+                    if (touchedCount == touched.length)
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    touched[touchedCount++] = position;
+                }
+            }
+        }
+
+        TopKHeap best = new TopKHeap(Math.min(k, touchedCount));
+        for (int i = 0; i < touchedCount; i++) {
+            int position = touched[i];
+            best.offer(position, measure.score(overlaps[position], queryCount, trigramCounts[position]));
+            overlaps[position] = 0;
+        }
+        return best;
+    }
+
+    /**
+     * Tells whether this index has been built from the given knowledge base instance.
+     * @param kb the knowledge base to check
+     * @return true if the index can serve the knowledge base
+     */
+    boolean isBuiltFrom(List<IKnowledge> kb) {
+        return source == kb;
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    int trigramCount() {
+        return dictionary.size();
+    }
+
+    IKnowledge entry(int position) {
+        return entries[position];
+    }
+
+    /**
+     * Reusable extractor of the distinct trigram ids of a text. The trigrams missing from the dictionary
+     * get ids beyond its size: they match no entry but still count in the size of the set.
+     */
+    private static final class TrigramCollector {
+        private final TermDictionary unknownTrigrams = new TermDictionary();
+        private final char[] trigram = new char[3];
+        private char[] padded = new char[64];
+        private int[] ids = new int[64];
+        private int count;
+
+        /**
+         * Collects the sorted distinct trigram ids of a text into {@link #ids}.
+         * @return the number of distinct trigrams
+         */
+        int collect(String text, TermDictionary dictionary, boolean extend) {
+            count = 0;
+            if (unknownTrigrams.size() > 0)
+                unknownTrigrams.clear();
+            String normalized = TextNormalizer.normalize(text);
+            int start = 0;
+            while (start < normalized.length()) {
+                int end = normalized.indexOf(' ', start);
+                if (end < 0)
+                    end = normalized.length();
+                addWord(normalized, start, end, dictionary, extend);
+                start = end + 1;
+            }
+
+            Arrays.sort(ids, 0, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                if (distinct == 0 || ids[distinct - 1] != ids[i])
+                    ids[distinct++] = ids[i];
+            }
+            count = distinct;
+            return count;
+        }
+
+        private void addWord(String text, int start, int end, TermDictionary dictionary, boolean extend) {
+            int length = end - start + 3;
+            if (padded.length < length)
+                padded = new char[length * 2];
+            padded[0] = ' ';
+            padded[1] = ' ';
+            text.getChars(start, end, padded, 2);
+            padded[length - 1] = ' ';
+
+            for (int i = 0; i + 3 <= length; i++) {
+                trigram[0] = padded[i];
+                trigram[1] = padded[i + 1];
+                trigram[2] = padded[i + 2];
+                int id = extend ? dictionary.intern(trigram, 3) : dictionary.idOf(trigram, 3);
+                if (id == TermDictionary.NOT_FOUND)
+                    id = dictionary.size() + unknownTrigrams.intern(trigram, 3);
+                if (count == ids.length)
+                    ids = Arrays.copyOf(ids, count * 2);
+                ids[count++] = id;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Service provider implementation comparing the character trigrams of the questions, so that mistyped
+ * words ("pasword resset") still match their knowledge base entry while the word-level cosine scores them 0.
+ * The candidates are the entries found in the posting lists of the trigrams of the question
+ * ({@link TrigramIndex}), scored with the Dice coefficient of the sets of trigrams, or with the Jaccard index
+ * when {@code similarity.trigram.measure} is {@code jaccard}.
+ */
+public class TrigramSimilarityService implements SimilarityService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrigramSimilarityService.class.getName());
+
+    private volatile TrigramIndex.Measure measure = TrigramIndex.Measure.DICE;
+    private volatile TrigramIndex index;
+
+    @Override
+    public String id() {
+        return "trigram";
+    }
+
+    @Override
+    public void init(YamlConfig appConfig) {
+        final String measureName = appConfig.getString("similarity.trigram.measure", "dice");
+        try {
+            this.measure = TrigramIndex.Measure.valueOf(measureName.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("similarity.trigram.measure must be dice or jaccard: " + measureName, e);
+        }
+        this.index = null;
+    }
+
+    @Override
+    public void index(List<IKnowledge> kb) {
+        if (kb != null)
+            indexFor(kb);
+    }
+
+    @Override
+    public KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold) {
+        if (question == null || question.trim().isEmpty() || kb == null || kb.isEmpty()) {
+            return new KnowledgeBestMatch(true, 0.0, null);
+        }
+
+        final TrigramIndex kbIndex = indexFor(kb);
+        final TopKHeap best = kbIndex.search(question, 1, measure);
+        IKnowledge bestMatch = null;
+        double bestSimilarity = 0.0;
+        if (best.size() > 0) {
+            bestMatch = kbIndex.entry(best.position(0));
+            bestSimilarity = best.score(0);
+        }
+
+        boolean shouldInvokeLlm = bestSimilarity < threshold;
+        IKnowledge resultMatch = bestSimilarity >= threshold ? bestMatch : null;
+
+        return new KnowledgeBestMatch(shouldInvokeLlm, bestSimilarity, resultMatch);
+    }
+
+    @Override
+    public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+        final List<ScoredKnowledge> scored = scoredTopK(question, kb, topK);
+        final List<IKnowledge> result = new ArrayList<>(scored.size());
+        for (ScoredKnowledge entry : scored) {
+            result.add(entry.getEntry());
+        }
+        return result;
+    }
+
+    @Override
+    public List<ScoredKnowledge> scoredTopK(String question, List<IKnowledge> kb, int topK) {
+        if (question == null || question.trim().isEmpty() || kb == null || kb.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+
+        final TrigramIndex kbIndex = indexFor(kb);
+        final TopKHeap best = kbIndex.search(question, topK, measure);
+
+        final int[] positions = new int[best.size()];
+        final double[] scores = new double[best.size()];
+        final int count = best.drainSorted(positions, scores);
+        final List<ScoredKnowledge> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new ScoredKnowledge(kbIndex.entry(positions[i]), scores[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Sets the similarity of the trigram sets.
+     * @param measure the measure scoring the next requests
+     */
+    void setMeasure(TrigramIndex.Measure measure) {
+        this.measure = measure;
+    }
+
+    /**
+     * Returns the index of the given knowledge base, building it if the current index
+     * has been built from a different knowledge base.
+     */
+    private TrigramIndex indexFor(List<IKnowledge> kb) {
+        TrigramIndex current = index;
+        if (current != null && current.isBuiltFrom(kb))
+            return current;
+
+        synchronized (this) {
+            current = index;
+            if (current == null || !current.isBuiltFrom(kb)) {
+                long start = System.nanoTime();
+                current = TrigramIndex.build(kb);
+                index = current;
+                LOGGER.info("Knowledge base trigrams indexed: {} entries, {} trigrams in {} ms",
+                        current.size(), current.trigramCount(), (System.nanoTime() - start) / 1_000_000);
+            }
+            return current;
+        }
+    }
+}
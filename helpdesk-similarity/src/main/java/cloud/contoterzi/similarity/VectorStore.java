@@ -0,0 +1,26 @@
+package cloud.contoterzi.similarity;
+
+/**
+ * Fixed-width vectors stored row after row, compared to a query vector by dot product.
+ */
+interface VectorStore {
+
+    int rows();
+
+    int dimensions();
+
+    /**
+     * Dot product between a vector and a row.
+     * @param vector the vector, {@link #dimensions()} long
+     * @param row the row
+     * @return the dot product, approximate if the rows are stored with a reduced precision
+     */
+    float dot(float[] vector, int row);
+
+    /**
+     * Tells whether {@link #dot(float[], int)} is approximate.
+     */
+    default boolean isApproximate() {
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeDelta;
+import cloud.contoterzi.helpdesk.core.model.impl.KnowledgeEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchScoringTaskTest {
+
+    @Test
+    void testBatchAgreesWithSingleQuestions() {
+        Random random = new Random(11);
+        // More entries than a tile, more questions than a block
+        String[] questions = new String[BatchScoringTask.TILE_SIZE + 500];
+        for (int i = 0; i < questions.length; i++) {
+            questions[i] = MaxScoreSearchTest.sentence(random, 3 + random.nextInt(8));
+        }
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(questions);
+
+        List<String> batch = new ArrayList<>();
+        for (int n = 0; n < 300; n++) {
+            batch.add(MaxScoreSearchTest.sentence(random, 1 + random.nextInt(8)));
+        }
+        batch.add(batch.get(0).toUpperCase());
+        batch.add(questions[42]);
+        batch.add("  ");
+        batch.add(null);
+        batch.add("zebra");
+
+        for (CosineSequenceMatcherService service : new CosineSequenceMatcherService[]{
+                new CosineSequenceMatcherService(), new Bm25SimilarityService()}) {
+            service.index(kb);
+            assertAgree(service, batch, kb);
+        }
+    }
+
+    @Test
+    void testBatchSkipsTheRemovedEntries() {
+        String[] questions = {
+                "How do I register a new job?",
+                "How do I assign a worker to a job?",
+                "How do I delete a customer?"
+        };
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(questions);
+        CosineSequenceMatcherService service = new CosineSequenceMatcherService();
+        service.index(kb);
+
+        KnowledgeEntry updated = new KnowledgeEntry();
+        updated.setId(2);
+        updated.setQuestion("How do I assign a machine to a job?");
+        updated.setAnswer("Answer 2");
+        KnowledgeDelta delta = new KnowledgeDelta(List.of(updated), List.of(3));
+        List<IKnowledge> updatedKb = delta.applyTo(kb);
+        assertTrue(service.applyDelta(updatedKb, delta));
+
+        List<String> batch = List.of("assign a machine to a job", "assign a worker to a job", "delete a customer");
+        List<KnowledgeBestMatch> matches = assertAgree(service, batch, updatedKb);
+        assertSame(updated, matches.get(0).getBestKBItem());
+        assertNull(matches.get(2).getBestKBItem());
+    }
+
+    private static List<KnowledgeBestMatch> assertAgree(CosineSequenceMatcherService service, List<String> batch,
+                                                        List<IKnowledge> kb) {
+        List<KnowledgeBestMatch> matches = service.findBestMatches(batch, kb, 0.5);
+        assertEquals(batch.size(), matches.size());
+        for (int i = 0; i < batch.size(); i++) {
+            KnowledgeBestMatch expected = service.findBestMatch(batch.get(i), kb, 0.5);
+            assertEquals(expected.isShouldInvokeLlm(), matches.get(i).isShouldInvokeLlm(), batch.get(i));
+            assertEquals(expected.getBestSim(), matches.get(i).getBestSim(), 1e-12, batch.get(i));
+            assertSame(expected.getBestKBItem(), matches.get(i).getBestKBItem(), batch.get(i));
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,77 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Bm25SimilarityServiceTest {
+
+    private static final String[] QUESTIONS = {
+            "How do I register a new job?",
+            "How do I assign a worker to a job?",
+            "How do I assign a machine to a job?",
+            "How do I select the customer for a job?",
+            "How do I delete a customer?",
+            "Invoice copy"
+    };
+
+    private Bm25SimilarityService service;
+    private List<IKnowledge> kb;
+
+    @BeforeEach
+    void setUp() {
+        service = new Bm25SimilarityService();
+        kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        service.index(kb);
+    }
+
+    @Test
+    void testIsRegisteredAsBm25() {
+        boolean found = ServiceLoader.load(SimilarityService.class).stream()
+                .anyMatch(provider -> "bm25".equals(provider.get().id()));
+        assertTrue(found, "The bm25 provider should be registered in META-INF/services");
+    }
+
+    @Test
+    void testRareWordsOutweighCommonWords() {
+        String question = "How do I get an invoice?";
+
+        CosineSequenceMatcherService cosine = new CosineSequenceMatcherService();
+        assertNotEquals("Invoice copy", cosine.findBestMatch(question, kb, 0.0).getBestKBItem().getQuestion(),
+                "Plain cosine is driven by the shared words 'how do i'");
+
+        KnowledgeBestMatch match = service.findBestMatch(question, kb, 0.0);
+        assertEquals("Invoice copy", match.getBestKBItem().getQuestion());
+    }
+
+    @Test
+    void testExactQuestionScoresOne() {
+        KnowledgeBestMatch match = service.findBestMatch("How do I delete a customer?", kb, 0.8);
+        assertFalse(match.isShouldInvokeLlm());
+        assertEquals(1.0, match.getBestSim(), 0.0001);
+        assertEquals("How do I delete a customer?", match.getBestKBItem().getQuestion());
+    }
+
+    @Test
+    void testStopWordsAloneStayBelowThreshold() {
+        KnowledgeBestMatch match = service.findBestMatch("How do I do it?", kb, 0.8);
+        assertTrue(match.isShouldInvokeLlm());
+        assertNull(match.getBestKBItem());
+        assertTrue(match.getBestSim() >= 0.0 && match.getBestSim() < 0.8);
+    }
+
+    @Test
+    void testTopKOrdersByScore() {
+        List<IKnowledge> top = service.topK("assign a machine", kb, 2);
+        assertEquals(2, top.size());
+        assertEquals("How do I assign a machine to a job?", top.get(0).getQuestion());
+        assertEquals("How do I assign a worker to a job?", top.get(1).getQuestion());
+    }
+}
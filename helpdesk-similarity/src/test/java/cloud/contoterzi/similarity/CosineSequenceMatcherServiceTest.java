@@ -0,0 +1,194 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.model.impl.KnowledgeEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CosineSequenceMatcherServiceTest {
+
+    private static final String[] QUESTIONS = {
+            "How do I register a new job?",
+            "How do I assign a worker to a job?",
+            "How do I assign a machine to a job?",
+            "How do I set the work date, registration date, and payment date?",
+            "How do I select the customer for a job?",
+            "How do I delete a customer?",
+            "What's the best recipe for chocolate cake?"
+    };
+
+    private CosineSequenceMatcherService service;
+    private List<IKnowledge> kb;
+
+    @BeforeEach
+    void setUp() {
+        service = new CosineSequenceMatcherService();
+        kb = knowledgeBase(QUESTIONS);
+        service.index(kb);
+    }
+
+    @Test
+    void testBestMatchAgreesWithPairwiseCosine() {
+        SequenceMatcherJava matcher = new SequenceMatcherJava();
+        String[] questions = {"How can I register a job?", "assign worker", "chocolate", "job job job", "nothing in common"};
+        for (String question : questions) {
+            IKnowledge expected = null;
+            double expectedSim = 0.0;
+            for (IKnowledge entry : kb) {
+                double sim = matcher.compute(question, entry.getQuestion());
+                if (sim > expectedSim) {
+                    expectedSim = sim;
+                    expected = entry;
+                }
+            }
+
+            KnowledgeBestMatch match = service.findBestMatch(question, kb, 0.0);
+            assertEquals(expectedSim, match.getBestSim(), "Indexed score should equal the pairwise score for: " + question);
+            assertSame(expected, match.getBestKBItem(), "Indexed best match should equal the pairwise one for: " + question);
+        }
+    }
+
+    @Test
+    void testThresholdDecidesLlmInvocation() {
+        KnowledgeBestMatch exact = service.findBestMatch("How do I delete a customer?", kb, 0.8);
+        assertFalse(exact.isShouldInvokeLlm());
+        assertEquals(1.0, exact.getBestSim(), 0.0001);
+        assertEquals("How do I delete a customer?", exact.getBestKBItem().getQuestion());
+
+        KnowledgeBestMatch weak = service.findBestMatch("weather forecast", kb, 0.8);
+        assertTrue(weak.isShouldInvokeLlm());
+        assertNull(weak.getBestKBItem());
+    }
+
+    @Test
+    void testIndexIsRebuiltForADifferentKnowledgeBase() {
+        List<IKnowledge> otherKb = knowledgeBase("How do I reset my password?", "System is down");
+
+        KnowledgeBestMatch match = service.findBestMatch("reset password", otherKb, 0.5);
+        assertEquals("How do I reset my password?", match.getBestKBItem().getQuestion());
+
+        match = service.findBestMatch("How do I delete a customer?", kb, 0.8);
+        assertEquals("How do I delete a customer?", match.getBestKBItem().getQuestion());
+    }
+
+    @Test
+    void testTopKOrdersByScore() {
+        List<IKnowledge> top = service.topK("How do I assign a worker to a job?", kb, 3);
+        assertEquals(3, top.size());
+        assertEquals("How do I assign a worker to a job?", top.get(0).getQuestion());
+        assertEquals("How do I assign a machine to a job?", top.get(1).getQuestion());
+    }
+
+    @Test
+    void testTopKFillsWithEntriesWithoutCommonWords() {
+        List<IKnowledge> top = service.topK("chocolate cake", kb, 3);
+        assertEquals(3, top.size());
+        assertEquals("What's the best recipe for chocolate cake?", top.get(0).getQuestion());
+        assertEquals(QUESTIONS[0], top.get(1).getQuestion(), "Zero-score entries should follow in knowledge base order");
+        assertEquals(QUESTIONS[1], top.get(2).getQuestion(), "Zero-score entries should follow in knowledge base order");
+    }
+
+    @Test
+    void testScoredTopKExposesTheScores() {
+        String question = "How do I assign a worker to a job?";
+        List<ScoredKnowledge> top = service.scoredTopK(question, kb, QUESTIONS.length);
+        assertEquals(QUESTIONS.length, top.size());
+        assertEquals(service.findBestMatch(question, kb, 0.0).getBestSim(), top.get(0).getScore());
+
+        SequenceMatcherJava matcher = new SequenceMatcherJava();
+        for (int i = 0; i < top.size(); i++) {
+            ScoredKnowledge scored = top.get(i);
+            assertEquals(matcher.compute(question, scored.getEntry().getQuestion()), scored.getScore(), 1e-6);
+            if (i > 0)
+                assertTrue(top.get(i - 1).getScore() >= scored.getScore(), "Scores should not increase");
+        }
+        assertEquals(service.topK(question, kb, 4), top.subList(0, 4).stream().map(ScoredKnowledge::getEntry).toList());
+    }
+
+    @Test
+    void testRepeatedQuestionsHitTheCache() {
+        KnowledgeBestMatch first = service.findBestMatch("How do I delete a customer?", kb, 0.8);
+        assertEquals(0, service.getCacheHits());
+        assertEquals(1, service.getCacheMisses());
+
+        KnowledgeBestMatch second = service.findBestMatch("  how do I DELETE a customer ", kb, 0.8);
+        assertEquals(1, service.getCacheHits());
+        assertSame(first.getBestKBItem(), second.getBestKBItem());
+        assertEquals(first.getBestSim(), second.getBestSim());
+
+        // The cached best match serves any threshold
+        KnowledgeBestMatch strict = service.findBestMatch("How do I delete a customer?", kb, 1.1);
+        assertTrue(strict.isShouldInvokeLlm());
+        assertNull(strict.getBestKBItem());
+        assertEquals(2, service.getCacheHits());
+    }
+
+    @Test
+    void testCacheIsInvalidatedByANewKnowledgeBase() {
+        service.findBestMatch("reset password", kb, 0.5);
+        List<IKnowledge> otherKb = knowledgeBase("How do I reset my password?", "System is down");
+
+        KnowledgeBestMatch match = service.findBestMatch("reset password", otherKb, 0.5);
+        assertEquals("How do I reset my password?", match.getBestKBItem().getQuestion());
+        assertEquals(0, service.getCacheHits());
+        assertEquals(2, service.getCacheMisses());
+    }
+
+    @Test
+    void testFewShotEntriesAreSearchedOnDemand() {
+        KnowledgeBestMatch match = service.findBestMatch("assign a worker", kb, 0.0);
+        assertEquals("How do I assign a worker to a job?", match.getBestKBItem().getQuestion());
+
+        List<ScoredKnowledge> examples = service.scoredTopK("assign a worker", kb, 3);
+        assertEquals(3, examples.size());
+        assertSame(match.getBestKBItem(), examples.get(0).getEntry());
+        assertEquals(match.getBestSim(), examples.get(0).getScore(), 1e-12);
+        // The examples reuse the cached vector of the question
+        assertEquals(1, service.getCacheHits());
+        assertEquals(1, service.getCacheMisses());
+        assertEquals(2, service.topK("assign a worker", kb, 2).size());
+    }
+
+    @Test
+    void testBestMatchKeepsThresholdPruning() {
+        // The question shares one word of five with the entries: none can reach the threshold
+        List<IKnowledge> otherKb = knowledgeBase("reset the password", "System is down");
+        service.setThresholdPruning(true);
+
+        KnowledgeBestMatch pruned = service.findBestMatch("reset something else entirely now", otherKb, 0.8);
+        assertTrue(pruned.isShouldInvokeLlm());
+        assertEquals(0.0, pruned.getBestSim(), "MaxScore should skip the postings which cannot reach the threshold");
+
+        // The few-shot examples are searched exhaustively, on demand
+        List<ScoredKnowledge> examples = service.scoredTopK("reset something else entirely now", otherKb, 1);
+        assertEquals("reset the password", examples.get(0).getEntry().getQuestion());
+        assertEquals(1.0 / Math.sqrt(5 * 3), examples.get(0).getScore(), 1e-9);
+    }
+
+    @Test
+    void testEmptyInputs() {
+        assertTrue(service.findBestMatch("  ", kb, 0.8).isShouldInvokeLlm());
+        assertTrue(service.findBestMatch("job", List.of(), 0.8).isShouldInvokeLlm());
+        assertTrue(service.topK("job", kb, 0).isEmpty());
+        assertTrue(service.topK(null, kb, 3).isEmpty());
+    }
+
+    static List<IKnowledge> knowledgeBase(String... questions) {
+        IKnowledge[] entries = new IKnowledge[questions.length];
+        for (int i = 0; i < questions.length; i++) {
+            KnowledgeEntry entry = new KnowledgeEntry();
+            entry.setId(i + 1);
+            entry.setQuestion(questions[i]);
+            entry.setAnswer("Answer " + (i + 1));
+            entry.setEscalation(false);
+            entries[i] = entry;
+        }
+        return List.of(entries);
+    }
+}
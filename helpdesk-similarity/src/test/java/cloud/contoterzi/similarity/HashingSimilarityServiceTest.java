@@ -0,0 +1,109 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.similarity.WordTokenizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashingSimilarityServiceTest {
+
+    private static final String[] QUESTIONS = {
+            "How do I register a new job?",
+            "How do I assign a worker to a job?",
+            "How do I assign a machine to a job?",
+            "How do I delete a customer?",
+            "What's the best recipe for chocolate cake?"
+    };
+
+    private HashingSimilarityService service;
+    private List<IKnowledge> kb;
+
+    @BeforeEach
+    void setUp() {
+        service = new HashingSimilarityService();
+        kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        service.index(kb);
+    }
+
+    @Test
+    void testInvalidSettingsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> service.init(config("ngrams: 3")));
+        assertThrows(IllegalArgumentException.class, () -> service.init(config("ngrams: 0")));
+        assertThrows(IllegalArgumentException.class, () -> service.init(config("storage: in8")));
+        service.init(config("ngrams: 1\n    storage: INT8"));
+    }
+
+    @Test
+    void testExactQuestionScoresOne() {
+        KnowledgeBestMatch match = service.findBestMatch("How do I delete a customer?", kb, 0.8);
+        assertFalse(match.isShouldInvokeLlm());
+        assertEquals(1.0, match.getBestSim(), 1e-5);
+        assertEquals("How do I delete a customer?", match.getBestKBItem().getQuestion());
+    }
+
+    @Test
+    void testUnrelatedQuestionInvokesLlm() {
+        KnowledgeBestMatch match = service.findBestMatch("weather forecast tomorrow", kb, 0.8);
+        assertTrue(match.isShouldInvokeLlm());
+        assertNull(match.getBestKBItem());
+    }
+
+    @Test
+    void testScoredTopKOrdersByScore() {
+        List<ScoredKnowledge> top = service.scoredTopK("assign a machine to a job", kb, QUESTIONS.length);
+        assertEquals(QUESTIONS.length, top.size());
+        assertEquals("How do I assign a machine to a job?", top.get(0).getEntry().getQuestion());
+        for (int i = 1; i < top.size(); i++) {
+            assertTrue(top.get(i - 1).getScore() >= top.get(i).getScore(), "Scores should not increase");
+        }
+        assertEquals(List.of(top.get(0).getEntry(), top.get(1).getEntry()),
+                service.topK("assign a machine to a job", kb, 2));
+    }
+
+    @Test
+    void testVectorsAreNormalized() {
+        FeatureHasher hasher = new FeatureHasher(WordTokenizer.INSTANCE, 64, 2);
+        float[] vector = new float[64 * 2];
+        assertTrue(hasher.vectorize("How do I reset my password?", vector, 64));
+        double norm = 0.0;
+        for (int i = 64; i < 128; i++) {
+            norm += vector[i] * vector[i];
+        }
+        assertEquals(1.0, norm, 1e-5);
+        for (int i = 0; i < 64; i++) {
+            assertEquals(0f, vector[i], "The other rows must be left untouched");
+        }
+        assertFalse(hasher.vectorize("?!", new float[64], 0));
+    }
+
+    @Test
+    void testUnrolledDotProductEqualsPlainLoop() {
+        Random random = new Random(1);
+        for (int length : new int[]{0, 1, 3, 4, 7, 64, 255}) {
+            float[] a = new float[length];
+            float[] b = new float[length + 5];
+            double expected = 0.0;
+            for (int i = 0; i < length; i++) {
+                a[i] = random.nextFloat() - 0.5f;
+                b[i + 5] = random.nextFloat() - 0.5f;
+                expected += a[i] * b[i + 5];
+            }
+            assertEquals(expected, DenseMatrix.dot(a, b, 5, length), 1e-4);
+        }
+    }
+
+    private static YamlConfig config(String hashing) {
+        String yaml = "similarity:\n  hashing:\n    " + hashing + "\n";
+        return new YamlConfig(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,154 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswGraphTest {
+
+    private static final int DIMENSIONS = 64;
+    private static final int K = 10;
+
+    @Test
+    void testRecallAgainstBruteForce() {
+        Random random = new Random(17);
+        DenseMatrix matrix = randomUnitVectors(random, 5_000);
+        HnswGraph graph = HnswGraph.build(matrix, 16, 100, 42L);
+        assertEquals(5_000, graph.size());
+
+        int queries = 100;
+        int found = 0;
+        for (int n = 0; n < queries; n++) {
+            float[] query = randomUnitVector(random);
+
+            TopKHeap exact = new TopKHeap(K);
+            for (int row = 0; row < matrix.rows(); row++) {
+                exact.offer(row, matrix.dot(query, row));
+            }
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < exact.size(); i++) {
+                expected.add(exact.position(i));
+            }
+
+            TopKHeap approximate = graph.search(query, K, 64);
+            assertEquals(K, approximate.size());
+            for (int i = 0; i < approximate.size(); i++) {
+                if (expected.contains(approximate.position(i)))
+                    found++;
+            }
+        }
+        double recall = (double) found / (queries * K);
+        assertTrue(recall >= 0.9, "Recall@10 should be at least 0.9 but was " + recall);
+    }
+
+    @Test
+    void testEveryRowFindsItself() {
+        Random random = new Random(23);
+        DenseMatrix matrix = randomUnitVectors(random, 1_000);
+        HnswGraph graph = HnswGraph.build(matrix, 8, 64, 42L);
+
+        float[] query = new float[DIMENSIONS];
+        int found = 0;
+        for (int row = 0; row < matrix.rows(); row++) {
+            System.arraycopy(matrix.data(), row * DIMENSIONS, query, 0, DIMENSIONS);
+            TopKHeap best = graph.search(query, 1, 64);
+            if (best.position(0) == row)
+                found++;
+        }
+        assertTrue(found >= 990, "Rows found as their own nearest neighbour: " + found);
+    }
+
+    @Test
+    void testEmptyGraph() {
+        HnswGraph graph = HnswGraph.build(new DenseMatrix(0, DIMENSIONS), 16, 100, 42L);
+        assertEquals(0, graph.search(new float[DIMENSIONS], 5, 64).size());
+    }
+
+    @Test
+    void testServiceAnswersFromTheGraph() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(
+                "How do I register a new job?",
+                "How do I assign a worker to a job?",
+                "How do I delete a customer?",
+                "What's the best recipe for chocolate cake?");
+        HnswSimilarityService service = new HnswSimilarityService();
+        service.index(kb);
+
+        KnowledgeBestMatch match = service.findBestMatch("How do I delete a customer?", kb, 0.8);
+        assertEquals("How do I delete a customer?", match.getBestKBItem().getQuestion());
+        assertEquals(1.0, match.getBestSim(), 1e-5);
+        assertEquals(2, service.topK("assign a worker", kb, 2).size());
+        assertTrue(service.findBestMatch("weather forecast tomorrow", kb, 0.8).isShouldInvokeLlm());
+    }
+
+    @Test
+    void testInt8StorageKeepsFloatRows() {
+        String yaml = "similarity:\n  hashing:\n    storage: int8\n";
+        HnswSimilarityService service = new HnswSimilarityService();
+        service.init(new YamlConfig(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8))));
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(
+                "How do I register a new job?", "How do I delete a customer?");
+
+        KnowledgeBestMatch match = service.findBestMatch("How do I delete a customer?", kb, 0.8);
+        assertEquals("How do I delete a customer?", match.getBestKBItem().getQuestion());
+        assertEquals(1.0, match.getBestSim(), 1e-6);
+    }
+
+    @Test
+    void testServiceReportsTheScanSimilarities() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(
+                "How do I register a new job?",
+                "How do I assign a worker to a job?",
+                "How do I delete a customer?",
+                "What's the best recipe for chocolate cake?",
+                "Printer jammed again",
+                "Reset the router");
+        HnswSimilarityService graph = new HnswSimilarityService();
+        HashingSimilarityService scan = new HashingSimilarityService();
+
+        for (String question : List.of("printer router cake", "delete a job", "weather forecast tomorrow")) {
+            Map<IKnowledge, Double> expected = new IdentityHashMap<>();
+            for (ScoredKnowledge scored : scan.scoredTopK(question, kb, kb.size())) {
+                expected.put(scored.getEntry(), scored.getScore());
+            }
+            for (ScoredKnowledge scored : graph.scoredTopK(question, kb, kb.size())) {
+                assertTrue(scored.getScore() >= 0.0, "Negative similarity for: " + question);
+                assertEquals(expected.get(scored.getEntry()), scored.getScore(), 1e-6);
+            }
+        }
+    }
+
+    private static DenseMatrix randomUnitVectors(Random random, int rows) {
+        DenseMatrix matrix = new DenseMatrix(rows, DIMENSIONS);
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(randomUnitVector(random), 0, matrix.data(), row * DIMENSIONS, DIMENSIONS);
+        }
+        return matrix;
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        double norm = 0.0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+}
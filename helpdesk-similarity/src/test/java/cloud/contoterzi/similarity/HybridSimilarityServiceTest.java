@@ -0,0 +1,236 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.config.YamlConfig;
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridSimilarityServiceTest {
+
+    private static final String[] QUESTIONS = {
+            "How do I register a new job?",
+            "How do I assign a worker to a job?",
+            "How do I assign a machine to a job?",
+            "How do I delete a customer?",
+            "What's the best recipe for chocolate cake?"
+    };
+
+    private List<IKnowledge> kb;
+
+    @BeforeEach
+    void setUp() {
+        kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+    }
+
+    @Test
+    void testRankingsAreFused() {
+        HybridSimilarityService service = new HybridSimilarityService();
+        service.setLegs(new Bm25SimilarityService(), new HashingSimilarityService(), 10_000);
+        service.index(kb);
+
+        List<ScoredKnowledge> top = service.scoredTopK("assign a machine to a job", kb, 3);
+        assertEquals("How do I assign a machine to a job?", top.get(0).getEntry().getQuestion());
+        // First in both rankings
+        assertEquals(2.0 / (HybridSimilarityService.DEFAULT_RRF_K + 1), top.get(0).getScore(), 1e-12);
+        for (int i = 1; i < top.size(); i++) {
+            assertTrue(top.get(i - 1).getScore() >= top.get(i).getScore());
+        }
+
+        KnowledgeBestMatch match = service.findBestMatch("How do I delete a customer?", kb, 0.8);
+        assertFalse(match.isShouldInvokeLlm());
+        assertEquals(1.0, match.getBestSim(), 1e-5);
+        assertEquals(0, service.getDenseTimeouts());
+    }
+
+    @Test
+    void testSlowVectorLegIsDropped() {
+        HybridSimilarityService service = new HybridSimilarityService();
+        service.setLegs(new CosineSequenceMatcherService(), new SlowService(), 20);
+        service.index(kb);
+
+        long start = System.nanoTime();
+        List<ScoredKnowledge> top = service.scoredTopK("assign a machine to a job", kb, 2);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 1_000, "The budget was not enforced: " + elapsedMillis + " ms");
+        assertEquals("How do I assign a machine to a job?", top.get(0).getEntry().getQuestion());
+        // Lexical rank only
+        assertEquals(1.0 / (HybridSimilarityService.DEFAULT_RRF_K + 1), top.get(0).getScore(), 1e-12);
+        assertEquals(1, service.getDenseTimeouts());
+    }
+
+    @Test
+    void testEntriesSharingNothingAreNotRanked() {
+        HybridSimilarityService service = new HybridSimilarityService();
+        service.setLegs(new CosineSequenceMatcherService(), new HashingSimilarityService(), 10_000);
+        KnowledgeBestMatch match = service.findBestMatch("weather forecast tomorrow", kb, 0.5);
+        assertTrue(match.isShouldInvokeLlm());
+        assertNull(match.getBestKBItem());
+        assertTrue(service.scoredTopK("weather forecast tomorrow", kb, 3).isEmpty());
+    }
+
+    @Test
+    void testBestMatchReportsTheLexicalSimilarity() {
+        CosineSequenceMatcherService lexical = new CosineSequenceMatcherService();
+        HybridSimilarityService service = new HybridSimilarityService();
+        service.setLegs(lexical, new FixedService(kb.get(2), 1.0), 10_000);
+
+        KnowledgeBestMatch match = service.findBestMatch("assign a machine", kb, 0.9);
+        assertEquals(lexical.findBestMatch("assign a machine", kb, 0.0).getBestSim(), match.getBestSim(), 1e-12);
+        assertTrue(match.isShouldInvokeLlm(), "The vector similarity should not be compared with the threshold");
+    }
+
+    @Test
+    void testVectorBoostDoesNotHideALexicalMatch() {
+        IKnowledge lexicalMatch = kb.get(0);
+        IKnowledge boosted = kb.get(1);
+        HybridSimilarityService service = new HybridSimilarityService();
+        service.setLegs(new FixedService(List.of(new ScoredKnowledge(lexicalMatch, 0.9), new ScoredKnowledge(boosted, 0.5))),
+                new FixedService(boosted, 1.0), 10_000);
+        assertSame(boosted, service.topK("question", kb, 2).get(0), "Ranked by both legs, the entry should come first");
+
+        KnowledgeBestMatch match = service.findBestMatch("question", kb, 0.8);
+        assertFalse(match.isShouldInvokeLlm());
+        assertSame(lexicalMatch, match.getBestKBItem());
+        assertEquals(0.9, match.getBestSim(), 1e-12);
+
+        match = service.findBestMatch("question", kb, 0.95);
+        assertTrue(match.isShouldInvokeLlm());
+        assertEquals(0.9, match.getBestSim(), 1e-12);
+    }
+
+    @Test
+    void testFullQueueFallsBackToLexical() throws Exception {
+        BlockedService blocked = new BlockedService();
+        HybridSimilarityService service = new HybridSimilarityService();
+        service.setLegs(new CosineSequenceMatcherService(), blocked, 10_000);
+        service.setDenseExecutor(1, 0);
+
+        Thread busy = new Thread(() -> service.scoredTopK("assign a worker", kb, 2));
+        busy.start();
+        try {
+            assertTrue(blocked.entered.await(10, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            List<ScoredKnowledge> top = service.scoredTopK("assign a machine to a job", kb, 2);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue(elapsedMillis < 1_000, "The request waited for the busy vector leg: " + elapsedMillis + " ms");
+            assertEquals("How do I assign a machine to a job?", top.get(0).getEntry().getQuestion());
+            assertEquals(1.0 / (HybridSimilarityService.DEFAULT_RRF_K + 1), top.get(0).getScore(), 1e-12);
+            assertEquals(1, service.getDenseRejections());
+        } finally {
+            blocked.release.countDown();
+            busy.join(10_000);
+        }
+    }
+
+    @Test
+    void testUnknownLegIsRejected() {
+        String yaml = "similarity:\n  hybrid:\n    dense: vectors\n";
+        YamlConfig config = new YamlConfig(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> new HybridSimilarityService().init(config));
+        assertTrue(error.getMessage().contains("similarity.hybrid.dense"), error.getMessage());
+    }
+
+    /**
+     * Vector leg ranking a single entry with a fixed score.
+     */
+    private static final class FixedService implements SimilarityService {
+        private final List<ScoredKnowledge> ranking;
+
+        FixedService(IKnowledge entry, double score) {
+            this(List.of(new ScoredKnowledge(entry, score)));
+        }
+
+        FixedService(List<ScoredKnowledge> ranking) {
+            this.ranking = ranking;
+        }
+
+        @Override
+        public void init(YamlConfig appConfig) {
+        }
+
+        @Override
+        public KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+            return ranking.stream().map(ScoredKnowledge::getEntry).toList();
+        }
+
+        @Override
+        public List<ScoredKnowledge> scoredTopK(String question, List<IKnowledge> kb, int topK) {
+            return ranking;
+        }
+    }
+
+    /**
+     * Vector leg blocked until released, whatever the interruptions.
+     */
+    private static final class BlockedService implements SimilarityService {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void init(YamlConfig appConfig) {
+        }
+
+        @Override
+        public KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+            entered.countDown();
+            boolean released = false;
+            while (!released) {
+                try {
+                    release.await();
+                    released = true;
+                } catch (InterruptedException e) {
+                    // Keeps running like a scoring loop which does not check the interruptions
+                }
+            }
+            return List.of(kb.get(0));
+        }
+    }
+
+    /**
+     * Vector leg taking far longer than any budget.
+     */
+    private static final class SlowService implements SimilarityService {
+        @Override
+        public void init(YamlConfig appConfig) {
+        }
+
+        @Override
+        public KnowledgeBestMatch findBestMatch(String question, List<IKnowledge> kb, double threshold) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<IKnowledge> topK(String question, List<IKnowledge> kb, int topK) {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of(kb.get(0));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexSnapshotTest {
+
+    private static final String[] QUESTIONS = {
+            "How do I register a new job?",
+            "How do I assign a worker to a job?",
+            "How do I assign a machine to a job?",
+            "How do I delete a customer?",
+            "Caf\u00e9 and job job job"
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRestoredIndexScoresLikeTheBuiltOne() throws IOException {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        SequenceMatcherJava matcher = new SequenceMatcherJava();
+        KnowledgeIndex built = KnowledgeIndex.build(kb, matcher, new Bm25Weighting(1.2, 0.75));
+        Path path = directory.resolve("index.bin");
+        byte[] key = IndexSnapshot.key(kb, "test");
+        IndexSnapshot.write(path, key, built);
+
+        KnowledgeIndex restored = IndexSnapshot.read(path, key, kb, new Bm25Weighting(1.2, 0.75));
+        assertNotNull(restored);
+        assertEquals(built.size(), restored.size());
+        assertEquals(built.termCount(), restored.termCount());
+        for (String question : new String[]{"assign a worker", "job", "delete the customer please"}) {
+            SparseVector builtQuestion = built.queryVector(question, matcher);
+            SparseVector restoredQuestion = restored.queryVector(question, matcher);
+            for (int position = 0; position < built.size(); position++) {
+                assertEquals(built.cosine(builtQuestion, position), restored.cosine(restoredQuestion, position), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testChangedKnowledgeBaseIsStale() throws IOException {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        Path path = directory.resolve("index.bin");
+        IndexSnapshot.write(path, IndexSnapshot.key(kb, "test"),
+                KnowledgeIndex.build(kb, new SequenceMatcherJava()));
+
+        List<IKnowledge> changed = CosineSequenceMatcherServiceTest.knowledgeBase("How do I register a new job?");
+        assertNull(IndexSnapshot.read(path, IndexSnapshot.key(changed, "test"), changed, new TermWeighting.TermFrequency()));
+        assertNull(IndexSnapshot.read(path, IndexSnapshot.key(kb, "other"), kb, new TermWeighting.TermFrequency()));
+        assertNull(IndexSnapshot.read(directory.resolve("missing.bin"), IndexSnapshot.key(kb, "test"), kb,
+                new TermWeighting.TermFrequency()));
+    }
+
+    @Test
+    void testServiceSavesAndRestoresItsIndex() throws IOException {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        Path path = directory.resolve("snapshots").resolve("cosine.bin");
+        CosineSequenceMatcherService first = new CosineSequenceMatcherService();
+        first.setSnapshotPath(path);
+        first.index(kb);
+        assertTrue(Files.size(path) > 0);
+
+        CosineSequenceMatcherService second = new CosineSequenceMatcherService();
+        second.setSnapshotPath(path);
+        assertScoresEqual(first.scoredTopK("assign a job", kb, 3), second.scoredTopK("assign a job", kb, 3));
+
+        // A corrupted snapshot is rebuilt
+        Files.write(path, new byte[]{0x48, 0x44, 0x49, 0x58, 0, 0, 0, 1, 1, 2, 3});
+        CosineSequenceMatcherService third = new CosineSequenceMatcherService();
+        third.setSnapshotPath(path);
+        assertScoresEqual(first.scoredTopK("assign a job", kb, 3), third.scoredTopK("assign a job", kb, 3));
+        assertTrue(Files.size(path) > 11);
+    }
+
+    private static void assertScoresEqual(List<ScoredKnowledge> expected, List<ScoredKnowledge> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i).getEntry(), actual.get(i).getEntry());
+            assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 1e-12);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MaxScoreSearchTest {
+
+    private static final String[] WORDS = {
+            "how", "do", "i", "a", "the", "register", "assign", "delete", "job", "worker", "machine", "customer",
+            "invoice", "date", "payment", "report", "export", "print", "password", "reset", "account", "user"
+    };
+
+    @Test
+    void testPrunedSearchFindsTheExhaustiveBestMatch() {
+        Random random = new Random(5);
+        String[] questions = new String[3_000];
+        for (int i = 0; i < questions.length; i++) {
+            // A long tail of verbose entries
+            questions[i] = sentence(random, i % 10 == 0 ? 40 + random.nextInt(40) : 3 + random.nextInt(6));
+        }
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(questions);
+        SequenceMatcherJava matcher = new SequenceMatcherJava();
+
+        for (KnowledgeIndex index : new KnowledgeIndex[]{
+                KnowledgeIndex.build(kb, matcher),
+                KnowledgeIndex.build(kb, matcher, new Bm25Weighting(1.2, 0.75))}) {
+            for (int n = 0; n < 200; n++) {
+                SparseVector question = index.queryVector(sentence(random, 1 + random.nextInt(8)), matcher);
+                TopKHeap exhaustive = ScoringTask.score(index, question, 2, 0, index.size(), 0.0);
+                int[] positions = new int[exhaustive.size()];
+                double[] scores = new double[exhaustive.size()];
+                exhaustive.drainSorted(positions, scores);
+
+                TopKHeap pruned = MaxScoreSearch.bestMatch(index, question, 0, index.size(), 0.0);
+                assertEquals(1, pruned.size());
+                assertEquals(positions[0], pruned.position(0));
+                assertEquals(scores[0], pruned.score(0), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testThresholdFloorKeepsMatchesAboveIt() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(
+                "How do I reset my password?", "How do I delete a customer?", "Reset the customer password");
+        SequenceMatcherJava matcher = new SequenceMatcherJava();
+        KnowledgeIndex index = KnowledgeIndex.build(kb, matcher);
+
+        SparseVector question = index.queryVector("How do I delete a customer?", matcher);
+        TopKHeap best = MaxScoreSearch.bestMatch(index, question, 0, index.size(), 0.8);
+        assertEquals(1, best.position(0));
+        assertEquals(1.0, best.score(0), 1e-9);
+    }
+
+    @Test
+    void testTombstonedEntriesAreSkipped() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(
+                "How do I delete a customer?", "How do I reset my password?", "How do I delete a job customer?");
+        SequenceMatcherJava matcher = new SequenceMatcherJava();
+        KnowledgeIndex index = KnowledgeIndex.build(kb, matcher);
+        SparseVector question = index.queryVector("How do I delete a customer?", matcher);
+        boolean[] removed = {true, false, false};
+
+        TopKHeap exact = MaxScoreSearch.bestMatch(index, question, 0, index.size(), 0.0, removed);
+        assertEquals(2, exact.position(0));
+        assertEquals(2, ScoringTask.score(index, question, 3, 0, index.size(), 0.0, removed).size());
+        // The tombstoned exact match does not raise the floor above the live entries
+        TopKHeap pruned = MaxScoreSearch.bestMatch(index, question, 0, index.size(), 0.5, removed);
+        assertEquals(2, pruned.position(0));
+        assertEquals(exact.score(0), pruned.score(0), 1e-12);
+    }
+
+    @Test
+    void testUnknownWordsOnly() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase("How do I reset my password?");
+        SequenceMatcherJava matcher = new SequenceMatcherJava();
+        KnowledgeIndex index = KnowledgeIndex.build(kb, matcher);
+
+        SparseVector question = index.queryVector("weather forecast", matcher);
+        assertEquals(0, MaxScoreSearch.bestMatch(index, question, 0, index.size(), 0.0).size());
+    }
+
+    static String sentence(Random random, int length) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sentence.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return sentence.toString();
+    }
+}
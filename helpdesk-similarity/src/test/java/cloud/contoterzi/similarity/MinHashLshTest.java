@@ -0,0 +1,87 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.similarity.WordTokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MinHashLshTest {
+
+    private static final String[] QUESTIONS = {
+            "How do I register a new job?",
+            "How do I assign a worker to a job?",
+            "How do I reset my password?",
+            "What's the best recipe for chocolate cake?"
+    };
+
+    @Test
+    void testIdenticalQuestionIsACandidate() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        MinHashLsh lsh = MinHashLsh.build(kb, WordTokenizer.INSTANCE, 16, 4, 42L);
+        for (int position = 0; position < QUESTIONS.length; position++) {
+            int[] candidates = lsh.candidates(QUESTIONS[position].toUpperCase());
+            assertTrue(Arrays.binarySearch(candidates, position) >= 0, "Missing " + QUESTIONS[position]);
+        }
+    }
+
+    @Test
+    void testUnrelatedQuestionHasNoCandidates() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        MinHashLsh lsh = MinHashLsh.build(kb, WordTokenizer.INSTANCE, 16, 4, 42L);
+        assertEquals(0, lsh.candidates("weather forecast tomorrow").length);
+        assertEquals(0, lsh.candidates("?!").length);
+    }
+
+    @Test
+    void testMoreBandsCatchLessSimilarQuestions() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        String nearDuplicate = "How do I reset my forgotten password?";
+        // Jaccard similarity 5/6 with the password question, about 1/3 with the other "how do I" questions
+        MinHashLsh loose = MinHashLsh.build(kb, WordTokenizer.INSTANCE, 32, 2, 42L);
+        MinHashLsh strict = MinHashLsh.build(kb, WordTokenizer.INSTANCE, 2, 8, 42L);
+        assertArrayEquals(new int[]{0, 1, 2}, loose.candidates(nearDuplicate));
+        assertArrayEquals(new int[]{2}, strict.candidates(nearDuplicate));
+    }
+
+    @Test
+    void testServiceScoresTheCandidates() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        CosineSequenceMatcherService service = new CosineSequenceMatcherService();
+        service.setLsh(32, 2);
+        service.index(kb);
+
+        KnowledgeBestMatch match = service.findBestMatch("How do I reset my forgotten password?", kb, 0.8);
+        assertEquals("How do I reset my password?", match.getBestKBItem().getQuestion());
+        assertEquals(new CosineSequenceMatcherService()
+                .findBestMatch("How do I reset my forgotten password?", kb, 0.8).getBestSim(), match.getBestSim(), 1e-9);
+
+        // Fewer candidates than requested: the whole index is scored
+        assertEquals(QUESTIONS.length, service.scoredTopK("How do I reset my password?", kb, QUESTIONS.length).size());
+    }
+
+    @Test
+    void testBestMatchBelowTheThresholdScoresTheWholeIndex() {
+        String question = "reset password now please";
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(
+                "password password password password password reset now please",
+                "reset my password now please");
+        // Only the first entry, with the same words, collides with the question
+        int[] candidates = MinHashLsh.build(kb, WordTokenizer.INSTANCE, 1, 16, 42L).candidates(question);
+        assertArrayEquals(new int[]{0}, candidates);
+
+        CosineSequenceMatcherService service = new CosineSequenceMatcherService();
+        service.setLsh(1, 16);
+        service.index(kb);
+        KnowledgeBestMatch match = service.findBestMatch(question, kb, 0.8);
+        assertEquals(2, match.getBestKBItem().getId());
+        assertEquals(service.findBestMatches(List.of(question), kb, 0.8).get(0).getBestSim(), match.getBestSim(), 1e-9);
+
+        // The candidate is kept when it reaches the threshold
+        assertEquals(1, service.findBestMatch(question, kb, 0.7).getBestKBItem().getId());
+    }
+}
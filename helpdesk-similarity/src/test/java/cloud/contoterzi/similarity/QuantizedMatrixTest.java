@@ -0,0 +1,73 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuantizedMatrixTest {
+
+    @Test
+    void testDotIsCloseToTheFloatDot() {
+        Random random = new Random(42);
+        int dimensions = 256;
+        QuantizedMatrix quantized = new QuantizedMatrix(20, dimensions);
+        DenseMatrix exact = new DenseMatrix(20, dimensions);
+        for (int row = 0; row < 20; row++) {
+            float[] vector = unitVector(random, dimensions);
+            quantized.set(row, vector);
+            System.arraycopy(vector, 0, exact.data(), row * dimensions, dimensions);
+        }
+
+        float[] query = unitVector(random, dimensions);
+        for (int row = 0; row < 20; row++) {
+            assertEquals(exact.dot(query, row), quantized.dot(query, row), 0.01);
+        }
+        assertTrue(quantized.isApproximate());
+    }
+
+    @Test
+    void testZeroRowHasZeroDot() {
+        QuantizedMatrix matrix = new QuantizedMatrix(1, 3);
+        matrix.set(0, new float[3]);
+        assertEquals(0f, matrix.dot(new float[]{1f, 0f, 0f}, 0));
+    }
+
+    @Test
+    void testQuantizedServiceRescoresTheCandidates() {
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(
+                "How do I register a new job?",
+                "How do I assign a worker to a job?",
+                "How do I assign a machine to a job?",
+                "How do I delete a customer?");
+        HashingSimilarityService service = new HashingSimilarityService();
+        service.setQuantized(true);
+        service.index(kb);
+
+        KnowledgeBestMatch match = service.findBestMatch("How do I delete a customer?", kb, 0.8);
+        assertEquals("How do I delete a customer?", match.getBestKBItem().getQuestion());
+        assertEquals(1.0, match.getBestSim(), 1e-5);
+
+        List<ScoredKnowledge> top = service.scoredTopK("assign a machine to a job", kb, 2);
+        assertEquals("How do I assign a machine to a job?", top.get(0).getEntry().getQuestion());
+        assertEquals(2, top.size());
+    }
+
+    private static float[] unitVector(Random random, int dimensions) {
+        float[] vector = new float[dimensions];
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,79 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.similarity.WordTokenizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RerankingSimilarityServiceTest {
+
+    private static final String[] QUESTIONS = {
+            "How do I move a job to another worker?",
+            "How do I move another worker to a job?",
+            "How do I delete a customer?",
+            "What's the best recipe for chocolate cake?"
+    };
+
+    private List<IKnowledge> kb;
+
+    @BeforeEach
+    void setUp() {
+        kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+    }
+
+    @Test
+    void testAlignmentScorer() {
+        AlignmentScorer scorer = new AlignmentScorer();
+        assertEquals(1.0, scorer.compute("How do I delete a customer?", "how do i DELETE a customer"), 1e-12);
+        assertEquals(0.0, scorer.compute("delete a customer", "chocolate cake"), 1e-12);
+        assertEquals(0.0, scorer.compute("", "chocolate cake"), 1e-12);
+        // Same words, only "move a ... to a" in order
+        assertEquals(2.0 * 4 / 12, scorer.compute("move a job to a worker", "move a worker to a job"), 1e-12);
+    }
+
+    @Test
+    void testWordOrderBreaksCosineTies() {
+        CosineSequenceMatcherService cosine = new CosineSequenceMatcherService();
+        // Both questions have the same words: the cosine keeps the first one
+        assertEquals(1, cosine.topK("move another worker to a job", kb, 1).get(0).getId());
+
+        RerankingSimilarityService service = new RerankingSimilarityService();
+        service.setStages(cosine, new AlignmentScorer(), RerankingSimilarityService.DEFAULT_DEPTH, 1.0);
+        service.index(kb);
+
+        List<ScoredKnowledge> top = service.scoredTopK("move another worker to a job", kb, 2);
+        assertEquals(2, top.get(0).getEntry().getId());
+        assertEquals(1, top.get(1).getEntry().getId());
+        assertTrue(top.get(0).getScore() > top.get(1).getScore());
+
+        KnowledgeBestMatch match = service.findBestMatch("How do I move another worker to a job?", kb, 0.8);
+        assertFalse(match.isShouldInvokeLlm());
+        assertEquals(2, match.getBestKBItem().getId());
+        assertEquals(1.0, match.getBestSim(), 1e-12);
+    }
+
+    @Test
+    void testScoresAreBlended() {
+        RerankingSimilarityService service = new RerankingSimilarityService();
+        service.setStages(new CosineSequenceMatcherService(), new AlignmentScorer(), 2, 0.5);
+
+        List<ScoredKnowledge> top = service.scoredTopK("How do I delete a customer?", kb, 1);
+        assertEquals(3, top.get(0).getEntry().getId());
+        assertEquals(1.0, top.get(0).getScore(), 1e-12);
+
+        // More entries than the depth: the first stage returns them all
+        assertEquals(4, service.topK("How do I delete a customer?", kb, 4).size());
+    }
+
+    @Test
+    void testUnknownScorer() {
+        assertThrows(IllegalArgumentException.class,
+                () -> RerankingSimilarityService.scorer("embedding", WordTokenizer.INSTANCE));
+    }
+}
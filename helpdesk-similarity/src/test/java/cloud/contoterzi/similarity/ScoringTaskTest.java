@@ -0,0 +1,78 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScoringTaskTest {
+
+    private static final String[] WORDS = {
+            "how", "do", "i", "register", "assign", "delete", "job", "worker", "machine", "customer",
+            "invoice", "date", "payment", "report", "export", "print", "password", "reset", "account", "user"
+    };
+
+    @Test
+    void testChunkedScoringEqualsSequentialScoring() {
+        Random random = new Random(11);
+        String[] questions = new String[5_000];
+        for (int i = 0; i < questions.length; i++) {
+            questions[i] = sentence(random, 3 + random.nextInt(8));
+        }
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(questions);
+        SequenceMatcherJava matcher = new SequenceMatcherJava();
+        KnowledgeIndex index = KnowledgeIndex.build(kb, matcher);
+
+        for (int n = 0; n < 50; n++) {
+            SparseVector question = index.queryVector(sentence(random, 1 + random.nextInt(6)), matcher);
+            for (int k : new int[]{1, 10}) {
+                TopKHeap sequential = ScoringTask.score(index, question, k, 0, index.size(), 0.0);
+                TopKHeap chunked = ForkJoinPool.commonPool()
+                        .invoke(new ScoringTask(index, question, k, 0, index.size(), 300, 0.0));
+                assertEquals(sequential.size(), chunked.size());
+
+                int[] expectedPositions = new int[sequential.size()];
+                double[] expectedScores = new double[sequential.size()];
+                sequential.drainSorted(expectedPositions, expectedScores);
+                int[] positions = new int[chunked.size()];
+                double[] scores = new double[chunked.size()];
+                chunked.drainSorted(positions, scores);
+                assertArrayEquals(expectedPositions, positions);
+                assertArrayEquals(expectedScores, scores);
+            }
+        }
+    }
+
+    @Test
+    void testParallelServiceMatchesSequentialService() {
+        Random random = new Random(3);
+        String[] questions = new String[2_000];
+        for (int i = 0; i < questions.length; i++) {
+            questions[i] = sentence(random, 3 + random.nextInt(8));
+        }
+        List<IKnowledge> kb = CosineSequenceMatcherServiceTest.knowledgeBase(questions);
+        CosineSequenceMatcherService sequential = new CosineSequenceMatcherService();
+        sequential.setParallelThreshold(0);
+        CosineSequenceMatcherService parallel = new CosineSequenceMatcherService();
+        parallel.setParallelThreshold(100);
+
+        for (int n = 0; n < 20; n++) {
+            String question = sentence(random, 1 + random.nextInt(6));
+            assertSame(sequential.findBestMatch(question, kb, 0.5).getBestKBItem(),
+                    parallel.findBestMatch(question, kb, 0.5).getBestKBItem());
+            assertEquals(sequential.topK(question, kb, 5), parallel.topK(question, kb, 5));
+        }
+    }
+
+    private static String sentence(Random random, int length) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sentence.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return sentence.toString();
+    }
+}
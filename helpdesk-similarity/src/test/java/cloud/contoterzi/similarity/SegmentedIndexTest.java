@@ -0,0 +1,154 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeDelta;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.model.impl.KnowledgeEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedIndexTest {
+
+    private static final String[] QUESTIONS = {
+            "How do I register a new job?",
+            "How do I assign a worker to a job?",
+            "How do I assign a machine to a job?",
+            "How do I delete a customer?",
+            "What's the best recipe for chocolate cake?"
+    };
+
+    private CosineSequenceMatcherService service;
+    private List<IKnowledge> kb;
+
+    @BeforeEach
+    void setUp() {
+        service = new CosineSequenceMatcherService();
+        kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        service.index(kb);
+    }
+
+    @Test
+    void testAddedEntryIsFound() {
+        KnowledgeDelta delta = new KnowledgeDelta(List.of(entry(10, "How do I print an invoice?")), List.of());
+        List<IKnowledge> updated = delta.applyTo(kb);
+        assertTrue(service.applyDelta(updated, delta));
+
+        KnowledgeBestMatch match = service.findBestMatch("how do I print an invoice", updated, 0.8);
+        assertEquals(10, match.getBestKBItem().getId());
+        assertEquals(1.0, match.getBestSim(), 1e-9);
+        assertEquals(QUESTIONS.length + 1, service.scoredTopK("job", updated, 100).size());
+    }
+
+    @Test
+    void testUpdatedAndRemovedEntriesAreNoLongerFound() {
+        KnowledgeDelta delta = new KnowledgeDelta(List.of(entry(3, "How do I assign a truck to a job?")), List.of(4));
+        List<IKnowledge> updated = delta.applyTo(kb);
+        assertTrue(service.applyDelta(updated, delta));
+
+        KnowledgeBestMatch match = service.findBestMatch("How do I assign a truck to a job?", updated, 0.8);
+        assertSame(updated.get(2), match.getBestKBItem());
+
+        List<ScoredKnowledge> all = service.scoredTopK("how do I delete a customer", updated, 100);
+        assertEquals(updated.size(), all.size());
+        for (ScoredKnowledge scored : all) {
+            assertNotEquals(4, scored.getEntry().getId(), "Removed entry returned");
+            assertFalse(scored.getEntry().getQuestion().contains("machine"), "Replaced entry returned");
+        }
+    }
+
+    @Test
+    void testResultsMatchAFullIndex() {
+        List<IKnowledge> updated = kb;
+        for (int round = 0; round < 5; round++) {
+            KnowledgeDelta delta = new KnowledgeDelta(
+                    List.of(entry(20 + round, "How do I assign worker " + round + " to a job?"),
+                            entry(1, "How do I register job " + round + "?")),
+                    round == 2 ? List.of(2) : List.of());
+            updated = delta.applyTo(updated);
+            assertTrue(service.applyDelta(updated, delta));
+        }
+
+        CosineSequenceMatcherService full = new CosineSequenceMatcherService();
+        for (String question : new String[]{"assign worker 3 to a job", "register job", "chocolate cake"}) {
+            List<ScoredKnowledge> expected = full.scoredTopK(question, updated, 3);
+            List<ScoredKnowledge> actual = service.scoredTopK(question, updated, 3);
+            assertEquals(expected.get(0).getEntry(), actual.get(0).getEntry());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void testPreviousKnowledgeBaseIsServedByTheNewIndex() {
+        KnowledgeDelta delta = new KnowledgeDelta(List.of(entry(10, "How do I print an invoice?")), List.of());
+        assertTrue(service.applyDelta(delta.applyTo(kb), delta));
+        // A request started before the delta still passes the previous knowledge base
+        assertEquals(10, service.findBestMatch("print an invoice", kb, 0.5).getBestKBItem().getId());
+    }
+
+    @Test
+    void testOlderGenerationsAreServedWithoutReIndexing() {
+        KnowledgeDelta first = new KnowledgeDelta(List.of(entry(10, "How do I print an invoice?")), List.of());
+        List<IKnowledge> firstKb = first.applyTo(kb);
+        assertTrue(service.applyDelta(firstKb, first));
+        KnowledgeDelta second = new KnowledgeDelta(List.of(entry(11, "How do I email an invoice?")), List.of(4));
+        List<IKnowledge> secondKb = second.applyTo(firstKb);
+        assertTrue(service.applyDelta(secondKb, second));
+
+        // Callers alternating between generations keep being served by the current index
+        for (List<IKnowledge> generation : List.of(kb, secondKb, firstKb, kb)) {
+            assertEquals(11, service.findBestMatch("email an invoice", generation, 0.5).getBestKBItem().getId());
+            assertNotEquals(4, service.findBestMatch("delete a customer", generation, 0.0).getBestKBItem().getId());
+        }
+    }
+
+    @Test
+    void testLargeDeltasAndBm25ReIndex() {
+        List<IKnowledge> added = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            added.add(entry(100 + i, "Question number " + i));
+        }
+        KnowledgeDelta large = new KnowledgeDelta(added, List.of());
+        List<IKnowledge> updated = large.applyTo(kb);
+        assertFalse(service.applyDelta(updated, large));
+        assertEquals(100, service.findBestMatch("question number 0", updated, 0.8).getBestKBItem().getId());
+
+        Bm25SimilarityService bm25 = new Bm25SimilarityService();
+        bm25.index(kb);
+        KnowledgeDelta small = new KnowledgeDelta(List.of(entry(10, "How do I print an invoice?")), List.of());
+        List<IKnowledge> smallUpdate = small.applyTo(kb);
+        assertFalse(bm25.applyDelta(smallUpdate, small));
+        assertEquals(10, bm25.findBestMatch("print an invoice", smallUpdate, 0.5).getBestKBItem().getId());
+    }
+
+    @Test
+    void testPreviousGenerationIsServedAfterAReIndex() {
+        Bm25SimilarityService bm25 = new Bm25SimilarityService();
+        bm25.index(kb);
+        KnowledgeDelta delta = new KnowledgeDelta(List.of(entry(10, "How do I print an invoice?")), List.of(4));
+        List<IKnowledge> updated = delta.applyTo(kb);
+        assertFalse(bm25.applyDelta(updated, delta));
+
+        // A request which read the knowledge base before the swap is served by the new index, without re-indexing
+        for (List<IKnowledge> generation : List.of(kb, updated, kb)) {
+            assertEquals(10, bm25.findBestMatch("print an invoice", generation, 0.5).getBestKBItem().getId());
+            assertNotEquals(4, bm25.findBestMatch("delete a customer", generation, 0.0).getBestKBItem().getId());
+        }
+    }
+
+    private static IKnowledge entry(int id, String question) {
+        KnowledgeEntry entry = new KnowledgeEntry();
+        entry.setId(id);
+        entry.setQuestion(question);
+        entry.setAnswer("Answer " + id);
+        entry.setEscalation(false);
+        return entry;
+    }
+}
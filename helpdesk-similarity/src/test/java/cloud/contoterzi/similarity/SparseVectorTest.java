@@ -0,0 +1,61 @@
+package cloud.contoterzi.similarity;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SparseVectorTest {
+
+    @Test
+    void testDictionaryAssignsDenseIds() {
+        TermDictionary dictionary = new TermDictionary();
+        assertEquals(0, dictionary.intern("job"));
+        assertEquals(1, dictionary.intern("register"));
+        assertEquals(0, dictionary.intern(new StringBuilder("job")), "The same term should keep its id");
+        assertEquals(1, dictionary.idOf("register"));
+        assertEquals(TermDictionary.NOT_FOUND, dictionary.idOf("customer"));
+        assertEquals("register", dictionary.term(1));
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    void testDictionaryGrowsKeepingIds() {
+        TermDictionary dictionary = new TermDictionary();
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, dictionary.intern("term" + i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, dictionary.idOf("term" + i));
+        }
+    }
+
+    @Test
+    void testTermFrequencyVector() {
+        SparseVector vector = SparseVector.ofTermIds(new int[]{5, 2, 5, 9, 5}, 5);
+        assertEquals(3, vector.size());
+        assertEquals(2, vector.id(0));
+        assertEquals(5, vector.id(1));
+        assertEquals(3f, vector.weight(1));
+        assertEquals(Math.sqrt(1 + 9 + 1), vector.norm(), 1e-12);
+    }
+
+    @Test
+    void testMergeJoinDotProduct() {
+        SparseVector a = SparseVector.ofTermIds(new int[]{1, 3, 3, 7}, 4);
+        SparseVector b = SparseVector.ofTermIds(new int[]{3, 4, 7, 7, 8}, 5);
+        assertEquals(2 * 1 + 1 * 2, a.dot(b), 1e-12);
+        assertEquals(0.0, a.dot(SparseVector.ofTermIds(new int[]{2, 4}, 2)));
+        assertEquals(0.0, a.dot(SparseVector.EMPTY));
+    }
+
+    @Test
+    void testQueryVectorKeepsUnknownWordsInTheNorm() {
+        SequenceMatcherJava matcher = new SequenceMatcherJava();
+        TermDictionary dictionary = new TermDictionary();
+        matcher.vectorize("register a new job", dictionary);
+
+        SparseVector query = matcher.vectorizeQuery("register register unknown job", dictionary);
+        assertEquals(4, dictionary.size(), "Query words must not be added to the dictionary");
+        assertEquals(Math.sqrt(4 + 1 + 1), query.norm(), 1e-12);
+    }
+}
@@ -0,0 +1,55 @@
+package cloud.contoterzi.similarity;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopKHeapTest {
+
+    @Test
+    void testKeepsTheBestInOrder() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            int n = random.nextInt(60);
+            int k = 1 + random.nextInt(10);
+            double[] scores = new double[n];
+            TopKHeap heap = new TopKHeap(k);
+            for (int position = 0; position < n; position++) {
+                // Few distinct values, so that ties are frequent
+                scores[position] = random.nextInt(5) / 4.0;
+                heap.offer(position, scores[position]);
+            }
+
+            List<Integer> expected = new ArrayList<>();
+            for (int position = 0; position < n; position++) {
+                expected.add(position);
+            }
+            expected.sort(Comparator.<Integer>comparingDouble(position -> -scores[position])
+                    .thenComparingInt(position -> position));
+            expected = expected.subList(0, Math.min(k, n));
+
+            int[] positions = new int[heap.size()];
+            double[] sortedScores = new double[heap.size()];
+            int count = heap.drainSorted(positions, sortedScores);
+            assertEquals(expected.size(), count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected.get(i), positions[i]);
+                assertEquals(scores[positions[i]], sortedScores[i]);
+            }
+            assertEquals(0, heap.size());
+        }
+    }
+
+    @Test
+    void testEmptyHeap() {
+        TopKHeap heap = new TopKHeap(0);
+        heap.offer(3, 1.0);
+        assertEquals(0, heap.size());
+        assertEquals(0, heap.drainSorted(new int[0], new double[0]));
+    }
+}
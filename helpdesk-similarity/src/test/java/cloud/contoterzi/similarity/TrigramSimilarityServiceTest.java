@@ -0,0 +1,77 @@
+package cloud.contoterzi.similarity;
+
+import cloud.contoterzi.helpdesk.core.model.IKnowledge;
+import cloud.contoterzi.helpdesk.core.model.KnowledgeBestMatch;
+import cloud.contoterzi.helpdesk.core.model.ScoredKnowledge;
+import cloud.contoterzi.helpdesk.core.spi.SimilarityService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrigramSimilarityServiceTest {
+
+    private static final String[] QUESTIONS = {
+            "How do I register a new job?",
+            "How do I reset my password?",
+            "How do I delete a customer?",
+            "What's the best recipe for chocolate cake?"
+    };
+
+    private TrigramSimilarityService service;
+    private List<IKnowledge> kb;
+
+    @BeforeEach
+    void setUp() {
+        service = new TrigramSimilarityService();
+        kb = CosineSequenceMatcherServiceTest.knowledgeBase(QUESTIONS);
+        service.index(kb);
+    }
+
+    @Test
+    void testIsRegisteredAsTrigram() {
+        boolean found = ServiceLoader.load(SimilarityService.class).stream()
+                .anyMatch(provider -> "trigram".equals(provider.get().id()));
+        assertTrue(found, "The trigram provider should be registered in META-INF/services");
+    }
+
+    @Test
+    void testExactQuestionScoresOne() {
+        KnowledgeBestMatch match = service.findBestMatch("how do i delete a customer", kb, 0.8);
+        assertFalse(match.isShouldInvokeLlm());
+        assertEquals(1.0, match.getBestSim(), 1e-9);
+        assertEquals("How do I delete a customer?", match.getBestKBItem().getQuestion());
+    }
+
+    @Test
+    void testTyposStillMatch() {
+        List<ScoredKnowledge> top = service.scoredTopK("pasword resset", kb, 2);
+        assertEquals("How do I reset my password?", top.get(0).getEntry().getQuestion());
+        assertTrue(top.get(0).getScore() > 0.4, "Score too low: " + top.get(0).getScore());
+        assertTrue(top.size() < 2 || top.get(1).getScore() < top.get(0).getScore());
+
+        // The word-level cosine finds nothing in common
+        CosineSequenceMatcherService cosine = new CosineSequenceMatcherService();
+        assertEquals(0.0, cosine.findBestMatch("pasword resset", kb, 0.5).getBestSim());
+    }
+
+    @Test
+    void testNoSharedTrigramFindsNothing() {
+        KnowledgeBestMatch match = service.findBestMatch("zzz qqq", kb, 0.5);
+        assertTrue(match.isShouldInvokeLlm());
+        assertNull(match.getBestKBItem());
+        assertEquals(0.0, match.getBestSim());
+        assertTrue(service.scoredTopK("zzz qqq", kb, 3).isEmpty());
+    }
+
+    @Test
+    void testJaccardIsNotHigherThanDice() {
+        double dice = service.findBestMatch("pasword resset", kb, 0.5).getBestSim();
+        service.setMeasure(TrigramIndex.Measure.JACCARD);
+        double jaccard = service.findBestMatch("pasword resset", kb, 0.5).getBestSim();
+        assertTrue(jaccard > 0.0 && jaccard < dice, "jaccard=" + jaccard + ", dice=" + dice);
+    }
+}